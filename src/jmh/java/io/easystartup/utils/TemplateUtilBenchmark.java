@@ -0,0 +1,82 @@
+package io.easystartup.utils;
+
+import com.hubspot.jinjava.Jinjava;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/*
+ * @author indianBond
+ *
+ * Cost of rendering the cloud-init of every server of a large cluster at once, as done when creating the servers:
+ * with the shared engine and parsed templates of TemplateUtil against a new engine and template read per render.
+ *
+ * Run with: ./gradlew jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateUtilBenchmark {
+
+    private static final int SERVERS = 300;
+
+    private ExecutorService executor;
+    private List<Map<String, Object>> dataModels;
+
+    @Setup
+    public void setUp() {
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        dataModels = new ArrayList<>();
+        for (int i = 0; i < SERVERS; i++) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("ssh_port", Integer.toString(22));
+            data.put("eth1_str", "");
+            data.put("growpart_str", "");
+            data.put("packages_str", "'fail2ban', 'wireguard', 'package-" + i + "'");
+            data.put("post_create_commands_str", "- echo server-" + i + "\n- systemctl restart sshd\n");
+            dataModels.add(data);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SERVERS)
+    public void sharedEngineCompiledTemplate(Blackhole blackhole) throws Exception {
+        renderAll(blackhole, data -> TemplateUtil.renderTemplate(TemplateUtil.CLOUD_INIT_YAML_PATH, data));
+    }
+
+    /**
+     * What TemplateUtil.renderTemplate used to do
+     */
+    @Benchmark
+    @OperationsPerInvocation(SERVERS)
+    public void newEngineAndTemplatePerRender(Blackhole blackhole) throws Exception {
+        renderAll(blackhole, data -> new Jinjava().render(TemplateUtil.getTemplateFile(TemplateUtil.CLOUD_INIT_YAML_PATH), data));
+    }
+
+    private void renderAll(Blackhole blackhole, Function<Map<String, Object>, String> render) throws Exception {
+        List<Future<String>> futures = new ArrayList<>(SERVERS);
+        for (Map<String, Object> data : dataModels) {
+            futures.add(executor.submit(() -> render.apply(data)));
+        }
+        for (Future<String> future : futures) {
+            blackhole.consume(future.get());
+        }
+    }
+}
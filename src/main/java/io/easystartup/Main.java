@@ -1,8 +1,11 @@
 package io.easystartup;
 
 
+import io.easystartup.cloud.hetzner.HetznerTransport;
 import io.easystartup.configuration.ConfigurationLoader;
 import io.easystartup.configuration.MainSettings;
+import io.easystartup.sshmux.SSHMuxClient;
+import io.easystartup.sshmux.SSHMuxDaemon;
 import io.easystartup.utils.Releases;
 import org.apache.commons.collections4.CollectionUtils;
 import org.slf4j.simple.SimpleLogger;
@@ -10,6 +13,7 @@ import picocli.CommandLine;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Duration;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.Callable;
@@ -41,6 +45,7 @@ public class Main {
                     ListK3sReleases.class,
                     CreateAccessBox.class,
                     CreateNatGateway.class,
+                    SSHMux.class,
             }
     )
     public static class K3sSimplifier implements Callable<Integer> {
@@ -75,14 +80,16 @@ public class Main {
         public void run() {
             try {
                 ConfigurationLoader configurationLoader = new ConfigurationLoader(config);
-                configurationLoader.validate();
+                configurationLoader.validateWithCapacityPlan();
                 for (String error : configurationLoader.getErrors()) {
                     System.out.println(error);
                 }
                 if (CollectionUtils.isNotEmpty(configurationLoader.getErrors())) {
                     return;
                 }
+                startSSHMuxIfEnabled(configurationLoader.getSettings());
                 new io.easystartup.cluster.CreateCluster(configurationLoader.getSettings()).initializeCluster();
+                printHetznerApiStats(configurationLoader.getSettings());
             } catch (Throwable throwable) {
                 System.out.println(throwable.getMessage());
             }
@@ -105,7 +112,9 @@ public class Main {
                 if (CollectionUtils.isNotEmpty(configurationLoader.getErrors())) {
                     return;
                 }
+                startSSHMuxIfEnabled(configurationLoader.getSettings());
                 new io.easystartup.cluster.DeleteCluster(configurationLoader.getSettings()).deleteCluster();
+                printHetznerApiStats(configurationLoader.getSettings());
             } catch (Throwable throwable) {
                 System.out.println(throwable.getMessage());
             }
@@ -149,6 +158,7 @@ public class Main {
                 if (CollectionUtils.isNotEmpty(configurationLoader.getErrors())) {
                     return;
                 }
+                startSSHMuxIfEnabled(settings);
                 new io.easystartup.cluster.UpgradeCluster(settings, newK3sVersion, config).upgradeCluster();
             } catch (Throwable throwable) {
                 System.out.println(throwable.getMessage());
@@ -175,6 +185,7 @@ public class Main {
                     return;
                 }
                 new io.easystartup.accessbox.CreateAccessBox(configurationLoader.getSettings(), config).initialize();
+                printHetznerApiStats(configurationLoader.getSettings());
             } catch (Throwable throwable) {
                 System.out.println(throwable.getMessage());
             }
@@ -199,12 +210,49 @@ public class Main {
                     return;
                 }
                 new io.easystartup.natgateway.CreateNatGateway(configurationLoader.getSettings()).initialize();
+                printHetznerApiStats(configurationLoader.getSettings());
             } catch (Throwable throwable) {
                 System.out.println(throwable.getMessage());
             }
         }
     }
 
+    @Command(name = "ssh-mux", description = "# Keep ssh sessions to the cluster nodes open across runs (started automatically with ssh_mux: true)")
+    public static class SSHMux implements Runnable {
+
+        @CommandLine.Option(names = {"--idle-minutes"}, defaultValue = "30", description = "# Stop after this many minutes without requests")
+        private long idleMinutes;
+
+        @CommandLine.Option(names = {"--stop"}, description = "# Stop the running daemon")
+        private boolean stop;
+
+        @Override
+        public void run() {
+            try {
+                if (stop) {
+                    System.out.println(SSHMuxClient.stop() ? "ssh-mux daemon stopped" : "ssh-mux daemon is not running");
+                    return;
+                }
+                new SSHMuxDaemon(Duration.ofMinutes(idleMinutes)).run();
+            } catch (Throwable throwable) {
+                System.out.println(throwable.getMessage());
+            }
+        }
+    }
+
+    private static void startSSHMuxIfEnabled(MainSettings settings) {
+        if (settings.isSshMux()) {
+            SSHMuxDaemon.ensureRunning();
+            SSHMuxClient.enable();
+        }
+    }
+
+    private static void printHetznerApiStats(MainSettings settings) {
+        if (settings.isDebug()) {
+            HetznerTransport.printStats();
+        }
+    }
+
     private static void setLoggerProperties() {
         System.setProperty(SimpleLogger.DEFAULT_LOG_LEVEL_KEY, "WARN");
         System.setProperty(SimpleLogger.SHOW_DATE_TIME_KEY, "true");
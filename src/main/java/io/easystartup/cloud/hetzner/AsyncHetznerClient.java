@@ -0,0 +1,140 @@
+package io.easystartup.cloud.hetzner;
+
+import io.easystartup.cloud.hetzner.firewall.Firewall;
+import io.easystartup.cloud.hetzner.loadbalancer.Loadbalancer;
+import io.easystartup.cloud.hetzner.network.Network;
+import io.easystartup.cloud.hetzner.placementgroup.PlacementGroup;
+import io.easystartup.cloud.hetzner.ssh.SSHKey;
+import me.tomsdevsn.hetznercloud.objects.general.LoadBalancer;
+import me.tomsdevsn.hetznercloud.objects.general.Server;
+import me.tomsdevsn.hetznercloud.objects.general.ServerType;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/*
+ * @author indianBond
+ *
+ * Non blocking view over HetznerClient and the resource wrappers. Every call runs on its own virtual thread and goes
+ * through the same transport, so the rate limit aware scheduler still decides how many requests are really in flight.
+ * Futures time out after the configured timeout, and cancelling a future (or it timing out) interrupts the call.
+ */
+public class AsyncHetznerClient {
+
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(10);
+
+    private final HetznerClient hetznerClient;
+    private final Duration timeout;
+
+    public AsyncHetznerClient(HetznerClient hetznerClient) {
+        this(hetznerClient, DEFAULT_TIMEOUT);
+    }
+
+    private AsyncHetznerClient(HetznerClient hetznerClient, Duration timeout) {
+        this.hetznerClient = hetznerClient;
+        this.timeout = timeout;
+    }
+
+    public AsyncHetznerClient withTimeout(Duration timeout) {
+        return new AsyncHetznerClient(hetznerClient, timeout);
+    }
+
+    public HetznerClient getHetznerClient() {
+        return hetznerClient;
+    }
+
+    /**
+     * Runs any blocking hetzner call (or a find-or-create made of several calls) asynchronously
+     */
+    public <T> CompletableFuture<T> supply(Supplier<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = EXECUTOR.submit(() -> {
+            try {
+                result.complete(call.get());
+            } catch (Throwable throwable) {
+                result.completeExceptionally(throwable);
+            }
+        });
+        result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        // Cancellation and timeouts interrupt the virtual thread, which aborts the in flight http request
+        result.whenComplete((value, throwable) -> {
+            if (throwable instanceof CancellationException || throwable instanceof TimeoutException) {
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Like join, but rethrows the original exception instead of a CompletionException
+     */
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    public CompletableFuture<List<ServerType>> getServerTypes() {
+        return supply(hetznerClient::getServerTypes);
+    }
+
+    public CompletableFuture<Server> findServer(String serverName) {
+        return supply(() -> hetznerClient.findServer(serverName));
+    }
+
+    public CompletableFuture<Server> getServer(long id) {
+        return supply(() -> hetznerClient.getServer(id));
+    }
+
+    public CompletableFuture<Void> deleteServer(long id) {
+        return supply(() -> hetznerClient.deleteServer(id)).thenCompose(deleted -> deleted);
+    }
+
+    public CompletableFuture<me.tomsdevsn.hetznercloud.objects.general.Network> findNetwork(String name) {
+        return supply(() -> new Network(hetznerClient).find(name));
+    }
+
+    public CompletableFuture<me.tomsdevsn.hetznercloud.objects.general.Network> createNetwork(String clusterName, String name, String privateNetworkSubnet, String networkZone) {
+        return supply(() -> new Network(hetznerClient).create(clusterName, name, privateNetworkSubnet, networkZone));
+    }
+
+    public CompletableFuture<me.tomsdevsn.hetznercloud.objects.general.Firewall> findFirewall(String name) {
+        return supply(() -> new Firewall(hetznerClient).find(name));
+    }
+
+    public CompletableFuture<me.tomsdevsn.hetznercloud.objects.general.Firewall> createFirewall(String clusterName, String firewallName, String[] sshAllowedNetworks, String[] apiAllowedNetworks, boolean highAvailability, int sshPort, String privateNetworkSubnet) {
+        return supply(() -> new Firewall(hetznerClient).create(clusterName, firewallName, sshAllowedNetworks, apiAllowedNetworks, highAvailability, sshPort, privateNetworkSubnet));
+    }
+
+    public CompletableFuture<me.tomsdevsn.hetznercloud.objects.general.PlacementGroup> findPlacementGroup(String name) {
+        return supply(() -> new PlacementGroup(hetznerClient).find(name));
+    }
+
+    public CompletableFuture<me.tomsdevsn.hetznercloud.objects.general.PlacementGroup> createPlacementGroup(String clusterName, String name) {
+        return supply(() -> new PlacementGroup(hetznerClient).create(clusterName, name));
+    }
+
+    public CompletableFuture<me.tomsdevsn.hetznercloud.objects.general.SSHKey> findSSHKey(String publicSSHKeyPath) {
+        return supply(() -> new SSHKey(hetznerClient).find(publicSSHKeyPath));
+    }
+
+    public CompletableFuture<me.tomsdevsn.hetznercloud.objects.general.SSHKey> createSSHKey(String clusterName, String publicSSHKeyPath) {
+        return supply(() -> new SSHKey(hetznerClient).create(clusterName, publicSSHKeyPath));
+    }
+
+    public CompletableFuture<LoadBalancer> findLoadBalancer(String name) {
+        return supply(() -> new Loadbalancer(hetznerClient).find(name));
+    }
+
+    public CompletableFuture<LoadBalancer> createK8sAPILoadBalancer(String clusterName, Long networkId, boolean privateApiLoadBalancer, String location) {
+        return supply(() -> new Loadbalancer(hetznerClient).createK8sAPILoadBalancer(clusterName, networkId, privateApiLoadBalancer, location));
+    }
+}
@@ -0,0 +1,35 @@
+package io.easystartup.cloud.hetzner;
+
+/*
+ * @author indianBond
+ */
+public class HetznerApiException extends RuntimeException {
+
+    private final int statusCode;
+    private final String code;
+
+    public HetznerApiException(int statusCode, String code, String message) {
+        super("Hetzner API error " + statusCode + " (" + code + "): " + message);
+        this.statusCode = statusCode;
+        this.code = code;
+    }
+
+    /**
+     * For actions which failed on hetzner side after the api call itself succeeded, status code is 0
+     */
+    public HetznerApiException(String code, String message) {
+        this(0, code, message);
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Error code as returned by hetzner, eg: rate_limit_exceeded, conflict, locked, resource_unavailable
+     * <a href="https://docs.hetzner.cloud/#errors">...</a>
+     */
+    public String getCode() {
+        return code;
+    }
+}
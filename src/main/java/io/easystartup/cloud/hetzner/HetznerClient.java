@@ -1,20 +1,25 @@
 package io.easystartup.cloud.hetzner;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import io.easystartup.cloud.hetzner.catalog.CatalogCache;
 import io.easystartup.utils.ConsoleColors;
 import io.easystartup.utils.TemplateUtil;
-import me.tomsdevsn.hetznercloud.HetznerCloudAPI;
 import me.tomsdevsn.hetznercloud.objects.general.*;
-import me.tomsdevsn.hetznercloud.objects.pagination.PaginationParameters;
 import me.tomsdevsn.hetznercloud.objects.request.CreateServerRequest;
 import me.tomsdevsn.hetznercloud.objects.request.CreateServerRequestFirewall;
 import me.tomsdevsn.hetznercloud.objects.request.ServerPublicNetRequest;
-import me.tomsdevsn.hetznercloud.objects.response.ServerTypesResponse;
 import me.tomsdevsn.hetznercloud.objects.response.ServersResponse;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import static io.easystartup.utils.Util.sleep;
@@ -24,25 +29,25 @@ import static io.easystartup.utils.Util.sleep;
  */
 public class HetznerClient {
 
-    private final HetznerCloudAPI hetznerCloudAPI;
+    private static final String RESOURCE_UNAVAILABLE = "resource_unavailable";
+
+    private final HetznerTransport transport;
+    private final Set<Pair<String, String>> unavailableCandidates = ConcurrentHashMap.newKeySet();
 
     public HetznerClient(String token) {
-        this.hetznerCloudAPI = new HetznerCloudAPI(token);
+        this.transport = HetznerTransport.forToken(token);
     }
 
-    public HetznerCloudAPI getHetznerCloudAPI() {
-        return hetznerCloudAPI;
+    public HetznerTransport getTransport() {
+        return transport;
     }
 
     public List<ServerType> getServerTypes() {
-        // todo: replace with paginated fetch all server types in upstream package
-        PaginationParameters paginationParameters = new PaginationParameters(0, 500);
-        ServerTypesResponse serverTypes = hetznerCloudAPI.getServerTypes(paginationParameters);
-        return serverTypes.getServerTypes();
+        return CatalogCache.get("server_types", ServerType.class, () -> transport.getAll("/server_types", "server_types", ServerType.class));
     }
 
     public Server findServer(String serverName) {
-        ServersResponse server = hetznerCloudAPI.getServer(serverName);
+        ServersResponse server = transport.get("/servers?name=" + HetznerTransport.encode(serverName), ServersResponse.class);
         List<Server> servers = server.getServers();
         if (CollectionUtils.isEmpty(servers)) {
             return null;
@@ -50,8 +55,17 @@ public class HetznerClient {
         return servers.get(0);
     }
 
-    public void deleteServer(long id) {
-        hetznerCloudAPI.deleteServer(id);
+    public Server getServer(long id) {
+        JsonNode response = transport.get("/servers/" + id, JsonNode.class);
+        return HetznerTransport.convert(response.get("server"), Server.class);
+    }
+
+    /**
+     * Completes once hetzner has actually finished deleting the server
+     */
+    public CompletableFuture<Void> deleteServer(long id) {
+        JsonNode response = HetznerRetry.delete("delete server " + id, () -> transport.delete("/servers/" + id, JsonNode.class));
+        return transport.getActionTracker().track(response);
     }
 
     public Server createServer(
@@ -69,13 +83,36 @@ public class HetznerClient {
             boolean enablePublicNetIpv6,
             String location,
             String snapshotOs, int sshPort, String role, boolean debug) {
+        return createServer(clusterName, List.of(instanceType), serverName, image, additionalPackages, masterPostCreateCommands,
+                firewall, network, sshKey, placementGroup, enablePublicNetIpv4, enablePublicNetIpv6, List.of(location),
+                snapshotOs, sshPort, role, debug);
+    }
+
+    /**
+     * Instance types and locations are tried in order, all locations of the first instance type before moving on to
+     * the next instance type, whenever hetzner has no capacity left for a combination. The combination which got
+     * created is recorded in the instance_type and location labels of the server.
+     */
+    public Server createServer(
+            String clusterName,
+            List<String> instanceTypes,
+            String serverName,
+            String image,
+            List<String> additionalPackages,
+            List<String> masterPostCreateCommands,
+            Firewall firewall,
+            Network network,
+            SSHKey sshKey,
+            PlacementGroup placementGroup,
+            boolean enablePublicNetIpv4,
+            boolean enablePublicNetIpv6,
+            List<String> locations,
+            String snapshotOs, int sshPort, String role, boolean debug) {
         CreateServerRequest.CreateServerRequestBuilder builder = CreateServerRequest
                 .builder()
                 .name(serverName)
                 .image(image)
                 .startAfterCreate(true)
-                .location(location)
-                .serverType(instanceType)
                 .firewalls(firewall != null ? List.of(CreateServerRequestFirewall.builder().firewallId(firewall.getId()).build()) : null)
                 .network(network.getId())
                 .placementGroup(placementGroup != null ? placementGroup.getId() : null)
@@ -87,14 +124,72 @@ public class HetznerClient {
                         .enableIPv4(enablePublicNetIpv4)
                         .enableIPv6(enablePublicNetIpv6)
                         .build());
-        hetznerCloudAPI.createServer(builder.build());
-        return waitForServerCreation(serverName);
+        List<Pair<String, String>> candidates = candidates(instanceTypes, locations);
+        for (int index = 0; ; index++) {
+            String instanceType = candidates.get(index).getLeft();
+            String location = candidates.get(index).getRight();
+            builder.serverType(instanceType)
+                    .location(location)
+                    .label("instance_type", instanceType)
+                    .label("location", location);
+            try {
+                return createServer(serverName, builder.build());
+            } catch (HetznerApiException e) {
+                if (!RESOURCE_UNAVAILABLE.equals(e.getCode()) || index == candidates.size() - 1) {
+                    throw e;
+                }
+                unavailableCandidates.add(candidates.get(index));
+                Pair<String, String> next = candidates.get(index + 1);
+                System.out.println(ConsoleColors.YELLOW + "No capacity for " + instanceType + " in " + location + ", creating server "
+                        + serverName + " as " + next.getLeft() + " in " + next.getRight() + " instead" + ConsoleColors.RESET);
+            }
+        }
+    }
+
+    /**
+     * Combinations which already ran out of capacity during this run go last, so that the other servers of a large
+     * pool don't each have to fail on them first
+     */
+    private List<Pair<String, String>> candidates(List<String> instanceTypes, List<String> locations) {
+        List<Pair<String, String>> candidates = new ArrayList<>();
+        for (String instanceType : instanceTypes) {
+            for (String location : locations) {
+                candidates.add(Pair.of(instanceType, location));
+            }
+        }
+        candidates.sort(Comparator.comparing(unavailableCandidates::contains));
+        return candidates;
+    }
+
+    private Server createServer(String serverName, CreateServerRequest request) {
+        AtomicReference<JsonNode> response = new AtomicReference<>();
+        // On a retry the name is looked up first, if an earlier attempt did create the server it is not created again
+        long serverId = HetznerRetry.create("create server " + serverName,
+                () -> {
+                    JsonNode created = transport.post("/servers", request, JsonNode.class);
+                    response.set(created);
+                    return created.get("server").get("id").asLong();
+                },
+                () -> {
+                    Server existing = findServer(serverName);
+                    return existing == null ? null : existing.getId();
+                });
+        // The create action and the next actions (start server, attach to network) are tracked in one batched poll
+        // shared by all servers being created, instead of every server polling for itself
+        try {
+            transport.getActionTracker().track(response.get()).orTimeout(10, TimeUnit.MINUTES).join();
+        } catch (CompletionException e) {
+            if (!(e.getCause() instanceof TimeoutException)) {
+                throw new RuntimeException("Unable to create server " + serverName, e.getCause());
+            }
+        }
+        return waitForServerCreation(serverId);
     }
 
-    private Server waitForServerCreation(String serverName) {
+    private Server waitForServerCreation(long serverId) {
         long tic = System.currentTimeMillis();
         while (true) {
-            Server server = findServer(serverName);
+            Server server = getServer(serverId);
             if (CollectionUtils.isNotEmpty(server.getPrivateNet()) &&
                     StringUtils.isNotBlank(server.getPrivateNet().get(0).getIp())) {
                 return server;
@@ -0,0 +1,181 @@
+package io.easystartup.cloud.hetzner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * @author indianBond
+ *
+ * Every hetzner api request goes through here. Keeps a token bucket in sync with the RateLimit-* headers hetzner
+ * sends back, and an AIMD concurrency limit per endpoint class, so that we stay at the edge of the quota
+ * instead of failing runs with 429s.
+ * <a href="https://docs.hetzner.cloud/#rate-limiting">...</a>
+ */
+public class HetznerRequestScheduler {
+
+    public enum EndpointClass {
+        CREATE,
+        READ,
+        DELETE
+    }
+
+    private static final int MAX_RATE_LIMIT_RETRIES = 10;
+
+    private final TokenBucket tokenBucket = new TokenBucket();
+    private final Map<EndpointClass, AdaptiveLimit> limits = new EnumMap<>(EndpointClass.class);
+
+    public HetznerRequestScheduler() {
+        limits.put(EndpointClass.CREATE, new AdaptiveLimit(5, 25));
+        limits.put(EndpointClass.READ, new AdaptiveLimit(10, 50));
+        limits.put(EndpointClass.DELETE, new AdaptiveLimit(5, 25));
+    }
+
+    public static EndpointClass classify(String method) {
+        return switch (method) {
+            case "GET" -> EndpointClass.READ;
+            case "DELETE" -> EndpointClass.DELETE;
+            default -> EndpointClass.CREATE;
+        };
+    }
+
+    public interface Call {
+        HttpResponse<InputStream> send() throws IOException, InterruptedException;
+    }
+
+    public HttpResponse<InputStream> execute(EndpointClass endpointClass, Call call) throws IOException, InterruptedException {
+        AdaptiveLimit limit = limits.get(endpointClass);
+        for (int attempt = 0; ; attempt++) {
+            tokenBucket.take();
+            limit.acquire();
+            HttpResponse<InputStream> response = null;
+            try {
+                response = call.send();
+            } finally {
+                limit.release(response);
+            }
+            tokenBucket.update(response.headers(), response.statusCode() == 429);
+            if (response.statusCode() != 429 || attempt >= MAX_RATE_LIMIT_RETRIES) {
+                return response;
+            }
+            response.body().close();
+        }
+    }
+
+    /**
+     * Hetzner allows 3600 requests per hour and refills one request per second. Remaining is taken from the headers
+     * and the refill rate is derived from RateLimit-Reset, the time at which the quota is full again.
+     */
+    private static class TokenBucket {
+        private final ReentrantLock lock = new ReentrantLock();
+        private double capacity = 3600;
+        private double tokens = 3600;
+        private double refillPerSecond = 1;
+        private long lastRefillNanos = System.nanoTime();
+
+        private void take() throws InterruptedException {
+            while (true) {
+                long waitMillis;
+                lock.lock();
+                try {
+                    refill();
+                    if (tokens >= 1) {
+                        tokens -= 1;
+                        return;
+                    }
+                    waitMillis = (long) Math.ceil((1 - tokens) / refillPerSecond * 1000);
+                } finally {
+                    lock.unlock();
+                }
+                TimeUnit.MILLISECONDS.sleep(Math.max(waitMillis, 10));
+            }
+        }
+
+        private void update(HttpHeaders headers, boolean throttled) {
+            OptionalLong limit = headers.firstValueAsLong("RateLimit-Limit");
+            OptionalLong remaining = headers.firstValueAsLong("RateLimit-Remaining");
+            OptionalLong reset = headers.firstValueAsLong("RateLimit-Reset");
+            lock.lock();
+            try {
+                refill();
+                if (limit.isPresent()) {
+                    capacity = limit.getAsLong();
+                }
+                if (remaining.isPresent()) {
+                    // Other requests might still be in flight, so never trust a higher count than what we have locally
+                    tokens = Math.min(tokens, remaining.getAsLong());
+                } else if (throttled) {
+                    tokens = 0;
+                }
+                if (remaining.isPresent() && reset.isPresent()) {
+                    long secondsToReset = reset.getAsLong() - System.currentTimeMillis() / 1000;
+                    double missing = capacity - remaining.getAsLong();
+                    if (secondsToReset > 0 && missing > 0) {
+                        refillPerSecond = missing / secondsToReset;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            double elapsedSeconds = (now - lastRefillNanos) / 1_000_000_000d;
+            tokens = Math.min(capacity, tokens + elapsedSeconds * refillPerSecond);
+            lastRefillNanos = now;
+        }
+    }
+
+    /**
+     * Additive increase, multiplicative decrease. Every successful request widens the window a little (by one slot
+     * per full window), a 429 halves it.
+     */
+    private static class AdaptiveLimit {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition available = lock.newCondition();
+        private final int maxLimit;
+        private double limit;
+        private int inFlight;
+
+        private AdaptiveLimit(int initialLimit, int maxLimit) {
+            this.limit = initialLimit;
+            this.maxLimit = maxLimit;
+        }
+
+        private void acquire() throws InterruptedException {
+            lock.lock();
+            try {
+                while (inFlight >= (int) limit) {
+                    available.await();
+                }
+                inFlight++;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void release(HttpResponse<?> response) {
+            lock.lock();
+            try {
+                inFlight--;
+                // Io failures (no response) don't say anything about the rate limit, so the window is left alone
+                if (response != null && response.statusCode() == 429) {
+                    limit = Math.max(1, limit / 2);
+                } else if (response != null) {
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package io.easystartup.cloud.hetzner;
+
+import io.easystartup.utils.ConsoleColors;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import static io.easystartup.utils.Util.sleep;
+
+/*
+ * @author indianBond
+ *
+ * Retries hetzner calls which failed with a transient error, with exponential backoff and jitter so that many
+ * virtual threads failing together don't all come back at the same moment.
+ * <a href="https://docs.hetzner.cloud/#errors">...</a>
+ */
+public class HetznerRetry {
+
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long BASE_DELAY_MILLIS = 1_000L;
+    private static final long MAX_DELAY_MILLIS = 60_000L;
+
+    // rate_limit_exceeded isn't here, 429s are already waited out and retried by HetznerRequestScheduler
+    private static final Set<String> RETRYABLE_CODES = Set.of(
+            "conflict",
+            "locked",
+            "timeout",
+            "unavailable",
+            "server_error",
+            "maintenance"
+    );
+
+    // While servers are still being deleted, their firewall/network/placement group can't be deleted yet
+    private static final Set<String> RETRYABLE_DELETE_CODES = Set.of("resource_in_use");
+
+    public static <T> T call(String description, Supplier<T> call) {
+        return create(description, call, null);
+    }
+
+    /**
+     * The existing lookup runs before every retry (and on a uniqueness error), so that a create whose response got
+     * lost, but which did go through on hetzner side, is not issued a second time.
+     */
+    public static <T> T create(String description, Supplier<T> create, Supplier<T> existing) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (attempt > 1 && existing != null) {
+                    T found = existing.get();
+                    if (found != null) {
+                        return found;
+                    }
+                }
+                return create.get();
+            } catch (RuntimeException e) {
+                if (existing != null && isCode(e, "uniqueness_error")) {
+                    T found = existing.get();
+                    if (found != null) {
+                        return found;
+                    }
+                }
+                if (attempt >= MAX_ATTEMPTS || !isRetryable(e, RETRYABLE_CODES)) {
+                    throw e;
+                }
+                backoff(description, attempt, e);
+            }
+        }
+    }
+
+    /**
+     * Returns null if the resource was already gone when retrying, which means an earlier attempt deleted it
+     */
+    public static <T> T delete(String description, Supplier<T> delete) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return delete.get();
+            } catch (RuntimeException e) {
+                if (attempt > 1 && isCode(e, "not_found")) {
+                    return null;
+                }
+                if (attempt >= MAX_ATTEMPTS || !(isRetryable(e, RETRYABLE_CODES) || isRetryable(e, RETRYABLE_DELETE_CODES))) {
+                    throw e;
+                }
+                backoff(description, attempt, e);
+            }
+        }
+    }
+
+    private static boolean isRetryable(RuntimeException e, Set<String> codes) {
+        if (e instanceof HetznerApiException apiException) {
+            return codes.contains(apiException.getCode()) || apiException.getStatusCode() >= 500;
+        }
+        // Connection reset, http/2 stream errors, request timeouts ...
+        return e.getCause() instanceof IOException;
+    }
+
+    private static boolean isCode(RuntimeException e, String code) {
+        return e instanceof HetznerApiException apiException && code.equals(apiException.getCode());
+    }
+
+    private static void backoff(String description, int attempt, RuntimeException e) {
+        long ceiling = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << (attempt - 1));
+        // Equal jitter: at least half of the exponential delay, the rest random
+        long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        System.out.println(ConsoleColors.YELLOW + "Retrying " + description + " in " + delay + " ms (attempt " + (attempt + 1) + "/" + MAX_ATTEMPTS + "): " + e.getMessage() + ConsoleColors.RESET);
+        sleep(delay);
+    }
+}
@@ -0,0 +1,229 @@
+package io.easystartup.cloud.hetzner;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.easystartup.cloud.hetzner.action.ActionTracker;
+import io.easystartup.utils.ConsoleColors;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * @author indianBond
+ *
+ * Single process wide transport for the hetzner cloud api. All HetznerClient instances (and so all the wrappers under
+ * io.easystartup.cloud.hetzner) share the same HttpClient, so requests are multiplexed over one HTTP/2 keep-alive
+ * connection instead of doing a TLS handshake per request.
+ */
+public class HetznerTransport {
+
+    private static final String API_URL = "https://api.hetzner.cloud/v1";
+    private static final int MAX_PER_PAGE = 50;
+
+    private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofSeconds(30))
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private static final Map<String, HetznerTransport> TRANSPORTS = new ConcurrentHashMap<>();
+
+    private static final Stats STATS = new Stats();
+
+    private final String token;
+    private final HetznerRequestScheduler scheduler = new HetznerRequestScheduler();
+    private final ActionTracker actionTracker;
+
+    private HetznerTransport(String token) {
+        this.token = token;
+        this.actionTracker = new ActionTracker(this);
+    }
+
+    public static HetznerTransport forToken(String token) {
+        return TRANSPORTS.computeIfAbsent(token, HetznerTransport::new);
+    }
+
+    public HetznerRequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public ActionTracker getActionTracker() {
+        return actionTracker;
+    }
+
+    public static ObjectMapper getObjectMapper() {
+        return OBJECT_MAPPER;
+    }
+
+    /**
+     * Reads have no side effects, so transient failures are always retried
+     */
+    public <T> T get(String path, Class<T> responseType) {
+        return HetznerRetry.call("GET " + path, () -> send(newRequest(path).GET().build(), responseType));
+    }
+
+    /**
+     * Follows meta.pagination.next_page until all the items under the given key are fetched
+     */
+    public <T> List<T> getAll(String path, String key, Class<T> itemType) {
+        List<T> items = new ArrayList<>();
+        String separator = path.contains("?") ? "&" : "?";
+        int page = 1;
+        while (page > 0) {
+            JsonNode response = get(path + separator + "page=" + page + "&per_page=" + MAX_PER_PAGE, JsonNode.class);
+            for (JsonNode item : response.path(key)) {
+                items.add(convert(item, itemType));
+            }
+            page = response.path("meta").path("pagination").path("next_page").asInt(0);
+        }
+        return items;
+    }
+
+    public <T> T post(String path, Object body, Class<T> responseType) {
+        return send(newRequest(path).header("Content-Type", "application/json").POST(jsonBody(body)).build(), responseType);
+    }
+
+    public <T> T put(String path, Object body, Class<T> responseType) {
+        return send(newRequest(path).header("Content-Type", "application/json").PUT(jsonBody(body)).build(), responseType);
+    }
+
+    public <T> T delete(String path, Class<T> responseType) {
+        return send(newRequest(path).DELETE().build(), responseType);
+    }
+
+    public static <T> T convert(JsonNode node, Class<T> type) {
+        if (node == null || node.isNull()) {
+            return null;
+        }
+        return OBJECT_MAPPER.convertValue(node, type);
+    }
+
+    /**
+     * Request objects of the hetznercloud library don't all expose labels, so they are added to the serialized body
+     */
+    public static ObjectNode withLabels(Object request, Map<String, String> labels) {
+        ObjectNode body = OBJECT_MAPPER.valueToTree(request);
+        ObjectNode labelsNode = body.with("labels");
+        labels.forEach(labelsNode::put);
+        return body;
+    }
+
+    public static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private HttpRequest.Builder newRequest(String path) {
+        return HttpRequest.newBuilder(URI.create(API_URL + path))
+                .timeout(Duration.ofMinutes(1))
+                .header("Authorization", "Bearer " + token)
+                .header("Accept", "application/json");
+    }
+
+    private HttpRequest.BodyPublisher jsonBody(Object body) {
+        try {
+            return HttpRequest.BodyPublishers.ofByteArray(OBJECT_MAPPER.writeValueAsBytes(body));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private <T> T send(HttpRequest request, Class<T> responseType) {
+        long tic = System.nanoTime();
+        HttpResponse<InputStream> response;
+        try {
+            response = scheduler.execute(HetznerRequestScheduler.classify(request.method()),
+                    () -> HTTP_CLIENT.send(request, HttpResponse.BodyHandlers.ofInputStream()));
+        } catch (IOException e) {
+            throw new RuntimeException("Hetzner API request failed " + request.method() + " " + request.uri().getPath(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        // Body is deserialized straight from the stream, it is never buffered as a string
+        try (InputStream body = response.body()) {
+            if (response.statusCode() >= 400) {
+                throw toException(response.statusCode(), body);
+            }
+            if (response.statusCode() == 204 || responseType == null || responseType == Void.class) {
+                return null;
+            }
+            return OBJECT_MAPPER.readValue(body, responseType);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read Hetzner API response for " + request.method() + " " + request.uri().getPath(), e);
+        } finally {
+            STATS.record(System.nanoTime() - tic);
+        }
+    }
+
+    private HetznerApiException toException(int statusCode, InputStream body) {
+        String code = "unknown";
+        String message = "";
+        try {
+            JsonNode error = OBJECT_MAPPER.readTree(body).path("error");
+            code = error.path("code").asText(code);
+            message = error.path("message").asText(message);
+        } catch (IOException ignored) {
+        }
+        return new HetznerApiException(statusCode, code, message);
+    }
+
+    public static void printStats() {
+        System.out.println(ConsoleColors.PURPLE + STATS.summary() + ConsoleColors.RESET);
+    }
+
+    /**
+     * The very first request pays the TCP + TLS handshake, all the others reuse the same HTTP/2 connection.
+     * So the handshake cost is estimated as the difference between the first request and the fastest request seen,
+     * and that is what every further request would have paid with a connection per request.
+     */
+    private static class Stats {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong firstRequestNanos = new AtomicLong(-1);
+        private final AtomicLong fastestRequestNanos = new AtomicLong(Long.MAX_VALUE);
+
+        private void record(long nanos) {
+            requests.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            firstRequestNanos.compareAndSet(-1, nanos);
+            fastestRequestNanos.accumulateAndGet(nanos, Math::min);
+        }
+
+        private String summary() {
+            long count = requests.get();
+            if (count == 0) {
+                return "Hetzner API: no requests made";
+            }
+            long handshakeNanos = Math.max(0, firstRequestNanos.get() - fastestRequestNanos.get());
+            long savedNanos = handshakeNanos * (count - 1);
+            return String.format("Hetzner API: %d requests in %d ms over a shared HTTP/2 connection, ~%d ms of handshakes saved (~%d ms per handshake)",
+                    count,
+                    TimeUnit.NANOSECONDS.toMillis(totalNanos.get()),
+                    TimeUnit.NANOSECONDS.toMillis(savedNanos),
+                    TimeUnit.NANOSECONDS.toMillis(handshakeNanos));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package io.easystartup.cloud.hetzner.action;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.easystartup.cloud.hetzner.HetznerApiException;
+import io.easystartup.cloud.hetzner.HetznerTransport;
+import org.apache.commons.collections4.ListUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import static io.easystartup.utils.Util.sleep;
+
+/*
+ * @author indianBond
+ *
+ * Tracks completion of hetzner actions (server create/delete, load balancer create, network route add ...).
+ * Instead of every caller polling its own resource, one poller asks for all the pending actions at once with
+ * GET /actions?id=1&id=2... and completes the futures as the actions finish.
+ * <a href="https://docs.hetzner.cloud/#actions-get-multiple-actions">...</a>
+ */
+public class ActionTracker {
+
+    private static final long POLL_INTERVAL_MILLIS = 2_000L;
+    private static final int MAX_IDS_PER_REQUEST = 50;
+    // About a minute of failing polls, the same failure for that long (revoked token, 403 ...) isn't temporary
+    private static final int MAX_CONSECUTIVE_POLL_FAILURES = 30;
+
+    private final HetznerTransport transport;
+    private final Map<Long, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private Thread poller;
+
+    public ActionTracker(HetznerTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Tracks the "action" and all the "next_actions" of a create/delete/action response.
+     * Completes once all of them are done, or exceptionally with the first failed action.
+     */
+    public CompletableFuture<Void> track(JsonNode response) {
+        return trackAll(actionIds(response));
+    }
+
+    public CompletableFuture<Void> trackAll(List<Long> actionIds) {
+        return CompletableFuture.allOf(actionIds.stream().map(this::track).toArray(CompletableFuture[]::new));
+    }
+
+    public CompletableFuture<Void> track(long actionId) {
+        CompletableFuture<Void> future = pending.computeIfAbsent(actionId, id -> new CompletableFuture<>());
+        startPollerIfNeeded();
+        return future;
+    }
+
+    public static List<Long> actionIds(JsonNode response) {
+        List<Long> actionIds = new ArrayList<>();
+        if (response == null) {
+            return actionIds;
+        }
+        if (response.hasNonNull("action")) {
+            actionIds.add(response.get("action").get("id").asLong());
+        }
+        for (JsonNode nextAction : response.path("next_actions")) {
+            actionIds.add(nextAction.get("id").asLong());
+        }
+        return actionIds;
+    }
+
+    private void startPollerIfNeeded() {
+        lock.lock();
+        try {
+            if (poller == null) {
+                poller = Thread.ofVirtual().name("hetzner-action-tracker").start(this::pollUntilIdle);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void pollUntilIdle() {
+        int consecutiveFailures = 0;
+        while (true) {
+            sleep(POLL_INTERVAL_MILLIS);
+            lock.lock();
+            try {
+                if (pending.isEmpty()) {
+                    poller = null;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            RuntimeException failure = null;
+            for (List<Long> actionIds : ListUtils.partition(new ArrayList<>(pending.keySet()), MAX_IDS_PER_REQUEST)) {
+                try {
+                    poll(actionIds);
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+            if (failure == null) {
+                consecutiveFailures = 0;
+            } else if (++consecutiveFailures < MAX_CONSECUTIVE_POLL_FAILURES) {
+                // Temporary api failures, the actions are still pending so will be asked for in the next round
+                System.out.println("Unable to fetch status of hetzner actions, will retry: " + failure.getMessage());
+            } else {
+                failAll(new RuntimeException("Unable to fetch status of hetzner actions " + consecutiveFailures + " times in a row", failure));
+                consecutiveFailures = 0;
+            }
+        }
+    }
+
+    private void failAll(RuntimeException e) {
+        for (Long actionId : new ArrayList<>(pending.keySet())) {
+            CompletableFuture<Void> future = pending.remove(actionId);
+            if (future != null) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void poll(List<Long> actionIds) {
+        String query = actionIds.stream().map(id -> "id=" + id).collect(Collectors.joining("&"));
+        JsonNode response = transport.get("/actions?per_page=" + MAX_IDS_PER_REQUEST + "&" + query, JsonNode.class);
+        Set<Long> missing = new HashSet<>(actionIds);
+        for (JsonNode action : response.path("actions")) {
+            missing.remove(action.get("id").asLong());
+            String status = action.path("status").asText();
+            if ("running".equals(status)) {
+                continue;
+            }
+            CompletableFuture<Void> future = pending.remove(action.get("id").asLong());
+            if (future == null) {
+                continue;
+            }
+            if ("error".equals(status)) {
+                JsonNode error = action.path("error");
+                future.completeExceptionally(new HetznerApiException(
+                        error.path("code").asText("action_failed"),
+                        action.path("command").asText() + " failed: " + error.path("message").asText()));
+            } else {
+                future.complete(null);
+            }
+        }
+        // Would otherwise be asked for forever
+        for (Long actionId : missing) {
+            CompletableFuture<Void> future = pending.remove(actionId);
+            if (future != null) {
+                future.completeExceptionally(new HetznerApiException("not_found", "action " + actionId + " not found"));
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package io.easystartup.cloud.hetzner.catalog;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.easystartup.cloud.hetzner.HetznerTransport;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/*
+ * @author indianBond
+ *
+ * On disk cache for hetzner catalogs which hardly ever change (server types, locations), stored under
+ * ~/.k3s-simplified/cache and refetched once older than the ttl.
+ * Loads are single flight: all the threads asking for the same catalog in a run wait on the same future, so only one
+ * of them reads the disk or calls the api.
+ */
+public class CatalogCache {
+
+    private static final Duration TTL = Duration.ofHours(24);
+    private static final Path CACHE_DIRECTORY = Paths.get(System.getProperty("user.home"), ".k3s-simplified", "cache");
+    private static final ObjectMapper OBJECT_MAPPER = HetznerTransport.getObjectMapper();
+
+    private static final Map<String, CompletableFuture<List<?>>> CATALOGS = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public static <T> List<T> get(String name, Class<T> type, Supplier<List<T>> fetch) {
+        CompletableFuture<List<?>> loading = new CompletableFuture<>();
+        CompletableFuture<List<?>> existing = CATALOGS.putIfAbsent(name, loading);
+        if (existing == null) {
+            try {
+                loading.complete(load(name, type, fetch));
+            } catch (RuntimeException e) {
+                // Don't keep failures around, the next caller tries again
+                CATALOGS.remove(name, loading);
+                loading.completeExceptionally(e);
+                throw e;
+            }
+            existing = loading;
+        }
+        try {
+            return (List<T>) existing.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+        }
+    }
+
+    private static <T> List<T> load(String name, Class<T> type, Supplier<List<T>> fetch) {
+        Path file = CACHE_DIRECTORY.resolve(name + ".json");
+        List<T> cached = read(file, type);
+        if (cached != null) {
+            return cached;
+        }
+        List<T> items = fetch.get();
+        write(file, items);
+        return items;
+    }
+
+    private static <T> List<T> read(Path file, Class<T> type) {
+        try {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            JsonNode content = OBJECT_MAPPER.readTree(file.toFile());
+            long fetchedAt = content.path("fetched_at").asLong(0);
+            if (System.currentTimeMillis() - fetchedAt > TTL.toMillis()) {
+                return null;
+            }
+            List<T> items = new ArrayList<>();
+            for (JsonNode item : content.path("items")) {
+                items.add(HetznerTransport.convert(item, type));
+            }
+            return items;
+        } catch (IOException | IllegalArgumentException e) {
+            // Corrupt or incompatible cache file, it is simply fetched again
+            return null;
+        }
+    }
+
+    private static void write(Path file, List<?> items) {
+        try {
+            Files.createDirectories(file.getParent());
+            ObjectNode content = OBJECT_MAPPER.createObjectNode();
+            content.put("fetched_at", System.currentTimeMillis());
+            content.set("items", OBJECT_MAPPER.valueToTree(items));
+            Path tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            OBJECT_MAPPER.writeValue(tempFile.toFile(), content);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ignored) {
+            // Cache is only an optimisation
+        }
+    }
+}
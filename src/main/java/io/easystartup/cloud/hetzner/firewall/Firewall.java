@@ -1,7 +1,8 @@
 package io.easystartup.cloud.hetzner.firewall;
 
 import io.easystartup.cloud.hetzner.HetznerClient;
-import me.tomsdevsn.hetznercloud.HetznerCloudAPI;
+import io.easystartup.cloud.hetzner.HetznerRetry;
+import io.easystartup.cloud.hetzner.HetznerTransport;
 import me.tomsdevsn.hetznercloud.objects.general.FirewallRule;
 import me.tomsdevsn.hetznercloud.objects.request.CreateFirewallRequest;
 import me.tomsdevsn.hetznercloud.objects.response.CreateFirewallResponse;
@@ -11,47 +12,51 @@ import org.apache.commons.lang3.StringUtils;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /*
  * @author indianBond
  */
 public class Firewall {
-    private final HetznerCloudAPI hetznerCloudAPI;
+    private final HetznerTransport transport;
 
     public Firewall(HetznerClient hetznerClient) {
-        this.hetznerCloudAPI = hetznerClient.getHetznerCloudAPI();
+        this.transport = hetznerClient.getTransport();
     }
 
     public me.tomsdevsn.hetznercloud.objects.general.Firewall find(String name) {
-        FirewallsResponse firewalls = hetznerCloudAPI.getFirewalls();
-        Optional<me.tomsdevsn.hetznercloud.objects.general.Firewall> first = firewalls.getFirewalls().stream().filter(firewall -> firewall.getName().equals(name)).findFirst();
+        FirewallsResponse firewalls = transport.get("/firewalls?name=" + HetznerTransport.encode(name), FirewallsResponse.class);
+        Optional<me.tomsdevsn.hetznercloud.objects.general.Firewall> first = firewalls.getFirewalls().stream().findFirst();
         return first.orElse(null);
     }
 
-    public me.tomsdevsn.hetznercloud.objects.general.Firewall create(String firewallName, String[] sshAllowedNetworks, String[] apiAllowedNetworks, boolean highAvailability, int sshPort, String privateNetworkSubnet) {
+    public me.tomsdevsn.hetznercloud.objects.general.Firewall create(String clusterName, String firewallName, String[] sshAllowedNetworks, String[] apiAllowedNetworks, boolean highAvailability, int sshPort, String privateNetworkSubnet) {
         CreateFirewallRequest.CreateFirewallRequestBuilder builder = CreateFirewallRequest.builder();
         builder.name(firewallName);
 
         builder.firewallRules(getFirewallRules(sshAllowedNetworks, apiAllowedNetworks, highAvailability, sshPort, privateNetworkSubnet));
-        CreateFirewallResponse firewall = hetznerCloudAPI.createFirewall(builder.build());
-        return firewall.getFirewall();
+        return create(firewallName, HetznerTransport.withLabels(builder.build(), Map.of("cluster", clusterName)));
     }
 
     public me.tomsdevsn.hetznercloud.objects.general.Firewall createFirewallForAccessBox(String firewallName, String privateNetworkSubnet, String[] sshAllowedNetworks, int sshPort) {
         CreateFirewallRequest.CreateFirewallRequestBuilder builder = CreateFirewallRequest.builder();
         builder.name(firewallName);
         builder.firewallRules(getFirewallRulesForAccessBox(privateNetworkSubnet, sshAllowedNetworks, sshPort));
-        CreateFirewallResponse firewall = hetznerCloudAPI.createFirewall(builder.build());
-        return firewall.getFirewall();
+        return create(firewallName, builder.build());
     }
 
     public me.tomsdevsn.hetznercloud.objects.general.Firewall createFirewallForNatGateway(String firewallName, String privateNetworkSubnet) {
         CreateFirewallRequest.CreateFirewallRequestBuilder builder = CreateFirewallRequest.builder();
         builder.name(firewallName);
         builder.firewallRules(getFirewallRulesForNatGateway(privateNetworkSubnet));
-        CreateFirewallResponse firewall = hetznerCloudAPI.createFirewall(builder.build());
-        return firewall.getFirewall();
+        return create(firewallName, builder.build());
+    }
+
+    private me.tomsdevsn.hetznercloud.objects.general.Firewall create(String firewallName, Object request) {
+        return HetznerRetry.create("create firewall " + firewallName,
+                () -> transport.post("/firewalls", request, CreateFirewallResponse.class).getFirewall(),
+                () -> find(firewallName));
     }
 
     private List<FirewallRule> getFirewallRulesForAccessBox(String privateNetworkSubnet, String[] sshAllowedNetworks, int sshPort) {
@@ -73,7 +78,7 @@ public class Firewall {
 
     public void update(Long firewallId, String[] sshAllowedNetworks, String[] apiAllowedNetworks, boolean highAvailability, int sshPort, String privateNetworkSubnet) {
         List<FirewallRule> firewallRules = getFirewallRules(sshAllowedNetworks, apiAllowedNetworks, highAvailability, sshPort, privateNetworkSubnet);
-        hetznerCloudAPI.setFirewallRules(firewallId, firewallRules);
+        HetznerRetry.call("update firewall " + firewallId, () -> transport.post("/firewalls/" + firewallId + "/actions/set_rules", Map.of("rules", firewallRules), Void.class));
     }
 
     private FirewallRule allowKubernetesAPI(String[] apiAllowedNetworks) {
@@ -149,6 +154,6 @@ public class Firewall {
     }
 
     public void delete(Long id) {
-        hetznerCloudAPI.deleteFirewall(id);
+        HetznerRetry.delete("delete firewall " + id, () -> transport.delete("/firewalls/" + id, Void.class));
     }
 }
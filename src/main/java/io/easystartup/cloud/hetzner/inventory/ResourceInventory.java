@@ -0,0 +1,206 @@
+package io.easystartup.cloud.hetzner.inventory;
+
+import io.easystartup.cloud.hetzner.HetznerClient;
+import io.easystartup.cloud.hetzner.HetznerTransport;
+import me.tomsdevsn.hetznercloud.objects.general.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/*
+ * @author indianBond
+ *
+ * In memory index of everything labelled cluster=<cluster name>, built with one paginated label selector sweep per
+ * resource type at the start of a command. Existence checks are answered from here instead of doing a lookup per name,
+ * so a re-run on a big cluster is a handful of api calls.
+ */
+public class ResourceInventory {
+
+    private final HetznerClient hetznerClient;
+    private final String labelSelector;
+
+    private final Index<Server> servers = new Index<>(Server::getName, Server::getId);
+    private final Index<PlacementGroup> placementGroups = new Index<>(PlacementGroup::getName, PlacementGroup::getId);
+    private final Index<Firewall> firewalls = new Index<>(Firewall::getName, Firewall::getId);
+    private final Index<Network> networks = new Index<>(Network::getName, Network::getId);
+    private final Index<LoadBalancer> loadBalancers = new Index<>(LoadBalancer::getName, LoadBalancer::getId);
+
+    private ResourceInventory(HetznerClient hetznerClient, String clusterName) {
+        this.hetznerClient = hetznerClient;
+        this.labelSelector = HetznerTransport.encode("cluster=" + clusterName);
+    }
+
+    public static ResourceInventory load(HetznerClient hetznerClient, String clusterName) {
+        ResourceInventory inventory = new ResourceInventory(hetznerClient, clusterName);
+        inventory.refresh();
+        return inventory;
+    }
+
+    public void refresh() {
+        HetznerTransport transport = hetznerClient.getTransport();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> servers.reset(transport.getAll("/servers?label_selector=" + labelSelector, "servers", Server.class))));
+            futures.add(executor.submit(() -> placementGroups.reset(transport.getAll("/placement_groups?label_selector=" + labelSelector, "placement_groups", PlacementGroup.class))));
+            futures.add(executor.submit(() -> firewalls.reset(transport.getAll("/firewalls?label_selector=" + labelSelector, "firewalls", Firewall.class))));
+            futures.add(executor.submit(() -> networks.reset(transport.getAll("/networks?label_selector=" + labelSelector, "networks", Network.class))));
+            futures.add(executor.submit(() -> loadBalancers.reset(transport.getAll("/load_balancers?label_selector=" + labelSelector, "load_balancers", LoadBalancer.class))));
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to load existing resources of the cluster", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Servers have always been created with the cluster label, so a miss here means the server does not exist
+     */
+    public Server findServer(String name) {
+        return servers.find(name, () -> null);
+    }
+
+    public List<Server> getServers() {
+        return servers.all();
+    }
+
+    public List<PlacementGroup> getPlacementGroups() {
+        return placementGroups.all();
+    }
+
+    public List<Firewall> getFirewalls() {
+        return firewalls.all();
+    }
+
+    public List<Network> getNetworks() {
+        return networks.all();
+    }
+
+    public List<LoadBalancer> getLoadBalancers() {
+        return loadBalancers.all();
+    }
+
+    // Placement groups, firewalls, networks and load balancers created by older versions are not labelled, for those
+    // a miss falls back to a lookup by name, once per name
+
+    public PlacementGroup findPlacementGroup(String name) {
+        return placementGroups.find(name, () -> new io.easystartup.cloud.hetzner.placementgroup.PlacementGroup(hetznerClient).find(name));
+    }
+
+    public Firewall findFirewall(String name) {
+        return firewalls.find(name, () -> new io.easystartup.cloud.hetzner.firewall.Firewall(hetznerClient).find(name));
+    }
+
+    public Network findNetwork(String name) {
+        return networks.find(name, () -> new io.easystartup.cloud.hetzner.network.Network(hetznerClient).find(name));
+    }
+
+    public LoadBalancer findLoadBalancer(String name) {
+        return loadBalancers.find(name, () -> new io.easystartup.cloud.hetzner.loadbalancer.Loadbalancer(hetznerClient).find(name));
+    }
+
+    public void add(Server server) {
+        servers.put(server);
+    }
+
+    public void add(PlacementGroup placementGroup) {
+        placementGroups.put(placementGroup);
+    }
+
+    public void add(Firewall firewall) {
+        firewalls.put(firewall);
+    }
+
+    public void add(Network network) {
+        networks.put(network);
+    }
+
+    public void add(LoadBalancer loadBalancer) {
+        loadBalancers.put(loadBalancer);
+    }
+
+    public void remove(Server server) {
+        servers.remove(server);
+    }
+
+    public void remove(PlacementGroup placementGroup) {
+        placementGroups.remove(placementGroup);
+    }
+
+    public void remove(Firewall firewall) {
+        firewalls.remove(firewall);
+    }
+
+    public void remove(Network network) {
+        networks.remove(network);
+    }
+
+    public void remove(LoadBalancer loadBalancer) {
+        loadBalancers.remove(loadBalancer);
+    }
+
+    private static class Index<T> {
+        private final Function<T, String> nameFunction;
+        private final Function<T, Long> idFunction;
+        private final Map<String, T> byName = new ConcurrentHashMap<>();
+        private final Map<Long, T> byId = new ConcurrentHashMap<>();
+        // Names already looked up without a result, so the fallback is not repeated for them
+        private final Set<String> missing = ConcurrentHashMap.newKeySet();
+
+        private Index(Function<T, String> nameFunction, Function<T, Long> idFunction) {
+            this.nameFunction = nameFunction;
+            this.idFunction = idFunction;
+        }
+
+        private void reset(List<T> items) {
+            byName.clear();
+            byId.clear();
+            missing.clear();
+            items.forEach(this::put);
+        }
+
+        private T find(String name, Supplier<T> fallback) {
+            T item = byName.get(name);
+            if (item != null || missing.contains(name)) {
+                return item;
+            }
+            item = fallback.get();
+            if (item == null) {
+                missing.add(name);
+            } else {
+                put(item);
+            }
+            return item;
+        }
+
+        private List<T> all() {
+            return List.copyOf(byId.values());
+        }
+
+        private void put(T item) {
+            String name = nameFunction.apply(item);
+            byName.put(name, item);
+            byId.put(idFunction.apply(item), item);
+            missing.remove(name);
+        }
+
+        private void remove(T item) {
+            String name = nameFunction.apply(item);
+            byName.remove(name);
+            byId.remove(idFunction.apply(item));
+            missing.add(name);
+        }
+    }
+}
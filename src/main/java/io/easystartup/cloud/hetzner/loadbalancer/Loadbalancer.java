@@ -1,7 +1,9 @@
 package io.easystartup.cloud.hetzner.loadbalancer;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import io.easystartup.cloud.hetzner.HetznerClient;
-import me.tomsdevsn.hetznercloud.HetznerCloudAPI;
+import io.easystartup.cloud.hetzner.HetznerRetry;
+import io.easystartup.cloud.hetzner.HetznerTransport;
 import me.tomsdevsn.hetznercloud.objects.enums.TargetType;
 import me.tomsdevsn.hetznercloud.objects.general.LBService;
 import me.tomsdevsn.hetznercloud.objects.general.LBTarget;
@@ -13,21 +15,24 @@ import me.tomsdevsn.hetznercloud.objects.response.LoadBalancerResponse;
 import me.tomsdevsn.hetznercloud.objects.response.LoadBalancersResponse;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 /*
  * @author indianBond
  */
 public class Loadbalancer {
 
-    private final HetznerCloudAPI hetznerCloudAPI;
+    private final HetznerTransport transport;
 
     public Loadbalancer(HetznerClient hetznerClient) {
-        this.hetznerCloudAPI = hetznerClient.getHetznerCloudAPI();
+        this.transport = hetznerClient.getTransport();
     }
 
     public LoadBalancer find(String loadBalancerName) {
-        LoadBalancersResponse loadBalancers = hetznerCloudAPI.getLoadBalancerByName(loadBalancerName);
+        LoadBalancersResponse loadBalancers = transport.get("/load_balancers?name=" + HetznerTransport.encode(loadBalancerName), LoadBalancersResponse.class);
         Optional<LoadBalancer> first = loadBalancers.getLoadBalancers().stream().findFirst();
         return first.orElse(null);
     }
@@ -54,11 +59,32 @@ public class Loadbalancer {
         builder.targets(List.of(lbTarget));
 
         builder.algorithm(new CreateLoadBalancerRequestAlgorithmType("round_robin"));
-        LoadBalancerResponse loadBalancer = hetznerCloudAPI.createLoadBalancer(builder.build());
+        Object request = HetznerTransport.withLabels(builder.build(), Map.of("cluster", clusterName));
+        String name = clusterName + "-api";
+        long loadBalancerId = HetznerRetry.create("create load balancer " + name,
+                () -> {
+                    JsonNode response = transport.post("/load_balancers", request, JsonNode.class);
+                    // Wait for hetzner to finish setting up the load balancer, after which it has its ips assigned
+                    try {
+                        transport.getActionTracker().track(response).orTimeout(10, TimeUnit.MINUTES).join();
+                    } catch (CompletionException e) {
+                        throw new RuntimeException("Unable to create load balancer " + name, e.getCause());
+                    }
+                    return response.get("load_balancer").get("id").asLong();
+                },
+                () -> {
+                    LoadBalancer existing = find(name);
+                    return existing == null ? null : existing.getId();
+                });
+        return get(loadBalancerId);
+    }
+
+    public LoadBalancer get(long id) {
+        LoadBalancerResponse loadBalancer = transport.get("/load_balancers/" + id, LoadBalancerResponse.class);
         return loadBalancer.getLoadBalancer();
     }
 
     public void delete(Long id) {
-        hetznerCloudAPI.deleteLoadBalancer(id);
+        HetznerRetry.delete("delete load balancer " + id, () -> transport.delete("/load_balancers/" + id, Void.class));
     }
 }
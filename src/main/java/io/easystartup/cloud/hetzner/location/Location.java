@@ -1,10 +1,10 @@
 package io.easystartup.cloud.hetzner.location;
 
 import io.easystartup.cloud.hetzner.HetznerClient;
-import me.tomsdevsn.hetznercloud.HetznerCloudAPI;
-import me.tomsdevsn.hetznercloud.objects.response.LocationsResponse;
+import io.easystartup.cloud.hetzner.HetznerTransport;
+import io.easystartup.cloud.hetzner.catalog.CatalogCache;
 
-import java.util.Optional;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -13,19 +13,22 @@ import java.util.stream.Collectors;
  */
 public class Location {
 
-    private final HetznerCloudAPI hetznerCloudAPI;
+    private final HetznerTransport transport;
 
     public Location(HetznerClient hetznerClient) {
-        this.hetznerCloudAPI = hetznerClient.getHetznerCloudAPI();
+        this.transport = hetznerClient.getTransport();
     }
 
     public Set<String> getLocations() {
-        LocationsResponse locations = hetznerCloudAPI.getLocations();
-        return locations.getLocations().stream().map(me.tomsdevsn.hetznercloud.objects.general.Location::getName).collect(Collectors.toSet());
+        return getAllLocations().stream().map(me.tomsdevsn.hetznercloud.objects.general.Location::getName).collect(Collectors.toSet());
     }
 
     public me.tomsdevsn.hetznercloud.objects.general.Location getLocation(String location) {
-        LocationsResponse locationByName = hetznerCloudAPI.getLocationByName(location);
-        return locationByName.getLocations().stream().findFirst().orElse(null);
+        return getAllLocations().stream().filter(val -> val.getName().equals(location)).findFirst().orElse(null);
+    }
+
+    private List<me.tomsdevsn.hetznercloud.objects.general.Location> getAllLocations() {
+        return CatalogCache.get("locations", me.tomsdevsn.hetznercloud.objects.general.Location.class,
+                () -> transport.getAll("/locations", "locations", me.tomsdevsn.hetznercloud.objects.general.Location.class));
     }
 }
@@ -1,37 +1,41 @@
 package io.easystartup.cloud.hetzner.network;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import io.easystartup.cloud.hetzner.HetznerClient;
-import me.tomsdevsn.hetznercloud.HetznerCloudAPI;
+import io.easystartup.cloud.hetzner.HetznerRetry;
+import io.easystartup.cloud.hetzner.HetznerTransport;
 import me.tomsdevsn.hetznercloud.objects.enums.SubnetType;
 import me.tomsdevsn.hetznercloud.objects.general.Subnet;
 import me.tomsdevsn.hetznercloud.objects.request.CreateNetworkRequest;
 import me.tomsdevsn.hetznercloud.objects.request.NetworkRouteRequest;
-import me.tomsdevsn.hetznercloud.objects.response.ActionResponse;
 import me.tomsdevsn.hetznercloud.objects.response.NetworkResponse;
 import me.tomsdevsn.hetznercloud.objects.response.NetworksResponse;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 /*
  * @author indianBond
  */
 public class Network {
-    private final HetznerCloudAPI hetznerCloudAPI;
+    private final HetznerTransport transport;
 
     public Network(HetznerClient hetznerClient) {
-        this.hetznerCloudAPI = hetznerClient.getHetznerCloudAPI();
+        this.transport = hetznerClient.getTransport();
     }
 
     public me.tomsdevsn.hetznercloud.objects.general.Network find(String existingNetworkName) {
-        NetworksResponse networksByName = hetznerCloudAPI.getNetworksByName(existingNetworkName);
+        NetworksResponse networksByName = transport.get("/networks?name=" + HetznerTransport.encode(existingNetworkName), NetworksResponse.class);
         return networksByName.getNetworks().stream().findFirst().orElse(null);
     }
 
     public void delete(long id) {
-        hetznerCloudAPI.deleteNetwork(id);
+        HetznerRetry.delete("delete network " + id, () -> transport.delete("/networks/" + id, Void.class));
     }
 
-    public me.tomsdevsn.hetznercloud.objects.general.Network create(String name, String privateNetworkSubnet, String networkZone) {
+    public me.tomsdevsn.hetznercloud.objects.general.Network create(String clusterName, String name, String privateNetworkSubnet, String networkZone) {
         CreateNetworkRequest.CreateNetworkRequestBuilder builder = CreateNetworkRequest.builder();
         builder.name(name);
         builder.ipRange(privateNetworkSubnet);
@@ -40,16 +44,22 @@ public class Network {
         subnet.setNetworkZone(networkZone);
         subnet.setIpRange(privateNetworkSubnet);
         builder.subnets(List.of(subnet));
-        NetworkResponse network = hetznerCloudAPI.createNetwork(builder.build());
-        return network.getNetwork();
+        Object request = HetznerTransport.withLabels(builder.build(), Map.of("cluster", clusterName));
+        return HetznerRetry.create("create network " + name,
+                () -> transport.post("/networks", request, NetworkResponse.class).getNetwork(),
+                () -> find(name));
     }
 
     public void addRouteToNetwork(long id, String destination, String gateway) {
         NetworkRouteRequest.NetworkRouteRequestBuilder builder = NetworkRouteRequest.builder();
         builder.destination(destination);
         builder.gateway(gateway);
-        ActionResponse actionResponse = hetznerCloudAPI.addRouteToNetwork(id, builder.build());
-        actionResponse.getAction();
+        JsonNode response = transport.post("/networks/" + id + "/actions/add_route", builder.build(), JsonNode.class);
+        try {
+            transport.getActionTracker().track(response).orTimeout(10, TimeUnit.MINUTES).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Unable to add route " + destination + " to network " + id, e.getCause());
+        }
     }
 
 
@@ -1,37 +1,40 @@
 package io.easystartup.cloud.hetzner.placementgroup;
 
 import io.easystartup.cloud.hetzner.HetznerClient;
-import me.tomsdevsn.hetznercloud.HetznerCloudAPI;
+import io.easystartup.cloud.hetzner.HetznerRetry;
+import io.easystartup.cloud.hetzner.HetznerTransport;
 import me.tomsdevsn.hetznercloud.objects.enums.PlacementGroupType;
 import me.tomsdevsn.hetznercloud.objects.request.CreatePlacementGroupRequest;
 import me.tomsdevsn.hetznercloud.objects.response.PlacementGroupResponse;
 import me.tomsdevsn.hetznercloud.objects.response.PlacementGroupsResponse;
 
-import java.util.Optional;
+import java.util.Map;
 
 /*
  * @author indianBond
  */
 public class PlacementGroup {
-    private final HetznerCloudAPI hetznerCloudAPI;
+    private final HetznerTransport transport;
 
     public PlacementGroup(HetznerClient hetznerClient) {
-        this.hetznerCloudAPI = hetznerClient.getHetznerCloudAPI();
+        this.transport = hetznerClient.getTransport();
     }
-    public me.tomsdevsn.hetznercloud.objects.general.PlacementGroup create(String name) {
+    public me.tomsdevsn.hetznercloud.objects.general.PlacementGroup create(String clusterName, String name) {
         CreatePlacementGroupRequest.CreatePlacementGroupRequestBuilder builder = CreatePlacementGroupRequest.builder();
         builder.name(name);
         builder.type(PlacementGroupType.spread);
-        PlacementGroupResponse placementGroup = hetznerCloudAPI.createPlacementGroup(builder.build());
-        return placementGroup.getPlacementGroup();
+        Object request = HetznerTransport.withLabels(builder.build(), Map.of("cluster", clusterName));
+        return HetznerRetry.create("create placement group " + name,
+                () -> transport.post("/placement_groups", request, PlacementGroupResponse.class).getPlacementGroup(),
+                () -> find(name));
     }
 
     public me.tomsdevsn.hetznercloud.objects.general.PlacementGroup find(String name) {
-        PlacementGroupsResponse placementGroups = hetznerCloudAPI.getPlacementGroup(name);
+        PlacementGroupsResponse placementGroups = transport.get("/placement_groups?name=" + HetznerTransport.encode(name), PlacementGroupsResponse.class);
         return placementGroups.getPlacementGroups().stream().findFirst().orElse(null);
     }
 
     public void delete(Long id) {
-        hetznerCloudAPI.deletePlacementGroup(id);
+        HetznerRetry.delete("delete placement group " + id, () -> transport.delete("/placement_groups/" + id, Void.class));
     }
 }
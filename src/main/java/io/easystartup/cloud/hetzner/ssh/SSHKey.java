@@ -1,7 +1,9 @@
 package io.easystartup.cloud.hetzner.ssh;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import io.easystartup.cloud.hetzner.HetznerClient;
-import me.tomsdevsn.hetznercloud.HetznerCloudAPI;
+import io.easystartup.cloud.hetzner.HetznerRetry;
+import io.easystartup.cloud.hetzner.HetznerTransport;
 import me.tomsdevsn.hetznercloud.objects.request.CreateSSHKeyRequest;
 import me.tomsdevsn.hetznercloud.objects.response.SSHKeysResponse;
 
@@ -16,10 +18,10 @@ import java.util.Optional;
  * @author indianBond
  */
 public class SSHKey {
-    private final HetznerCloudAPI hetznerCloudAPI;
+    private final HetznerTransport transport;
 
     public SSHKey(HetznerClient hetznerClient) {
-        this.hetznerCloudAPI = hetznerClient.getHetznerCloudAPI();
+        this.transport = hetznerClient.getTransport();
     }
 
     public me.tomsdevsn.hetznercloud.objects.general.SSHKey create(String clusterName, String publicSSHKeyPath) {
@@ -28,7 +30,10 @@ public class SSHKey {
             CreateSSHKeyRequest.CreateSSHKeyRequestBuilder builder = CreateSSHKeyRequest.builder();
             builder.name(clusterName);
             builder.publicKey(publicKey);
-            return hetznerCloudAPI.createSSHKey(builder.build()).getSshKey();
+            CreateSSHKeyRequest request = builder.build();
+            return HetznerRetry.create("create ssh key " + clusterName,
+                    () -> HetznerTransport.convert(transport.post("/ssh_keys", request, JsonNode.class).get("ssh_key"), me.tomsdevsn.hetznercloud.objects.general.SSHKey.class),
+                    () -> find(publicSSHKeyPath));
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -37,14 +42,14 @@ public class SSHKey {
     public me.tomsdevsn.hetznercloud.objects.general.SSHKey find(String publicSSHKeyPath) {
         try {
             String fingerPrint = calculateFingerprint(publicSSHKeyPath);
-            SSHKeysResponse sshKey = hetznerCloudAPI.getSSHKeyByFingerprint(fingerPrint);
+            SSHKeysResponse sshKey = transport.get("/ssh_keys?fingerprint=" + HetznerTransport.encode(fingerPrint), SSHKeysResponse.class);
             return sshKey.getSshKeys().stream().findFirst().orElse(null);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    private static String calculateFingerprint(String publicSSHKeyPath) throws Exception {
+    public static String calculateFingerprint(String publicSSHKeyPath) throws Exception {
         byte[] keyBytes = Files.readAllBytes(Paths.get(publicSSHKeyPath));
         String keyContent = new String(keyBytes);
         String privateKey = keyContent.split("\\s+")[1];
@@ -1,7 +1,10 @@
 package io.easystartup.cluster;
 
+import io.easystartup.cloud.hetzner.AsyncHetznerClient;
 import io.easystartup.cloud.hetzner.HetznerClient;
+import io.easystartup.cloud.hetzner.inventory.ResourceInventory;
 import io.easystartup.cloud.hetzner.loadbalancer.Loadbalancer;
+import io.easystartup.cluster.state.ClusterStateCache;
 import io.easystartup.configuration.MainSettings;
 import io.easystartup.configuration.NodePool;
 import io.easystartup.kubernetes.KubernetesInstaller;
@@ -13,8 +16,7 @@ import org.apache.commons.lang3.StringUtils;
 import java.util.*;
 import java.util.concurrent.*;
 
-import static io.easystartup.utils.ServerUtils.waitForServerToComeUp;
-import static io.easystartup.utils.Util.sleep;
+import static io.easystartup.utils.ServerUtils.waitForServersToComeUp;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
 /*
@@ -33,6 +35,9 @@ public class CreateCluster {
     private static final int MAX_INSTANCES_PER_PLACEMENT_GROUP = 10;
     private final MainSettings mainSettings;
     private final HetznerClient hetznerClient;
+    private final AsyncHetznerClient asyncHetznerClient;
+    private final ClusterStateCache stateCache;
+    private ResourceInventory inventory;
     private LoadBalancer loadBalancer;
     private final Map<ServerType, List<Server>> serverMap = new ConcurrentHashMap();
 
@@ -41,27 +46,36 @@ public class CreateCluster {
     private SSHKey sshKey;
 
     private final SSH ssh;
+    // Concurrency of the actual api calls is bounded by the rate limit aware scheduler inside HetznerClient
     private final ExecutorService VIRTUAL_THREAD_PER_TASK_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
-    private static final int MAX_API_CALL_CONCURRENCY = 5;
 
     public CreateCluster(MainSettings mainSettings) {
         this.mainSettings = mainSettings;
         this.hetznerClient = new HetznerClient(mainSettings.getHetznerToken());
-        this.ssh = new SSH(mainSettings.getPrivateSSHKeyPath(), mainSettings.getPublicSSHKeyPath());
+        this.asyncHetznerClient = new AsyncHetznerClient(hetznerClient);
+        this.stateCache = new ClusterStateCache(mainSettings);
+        this.ssh = new SSH(mainSettings.getPrivateSSHKeyPath(), mainSettings.getPublicSSHKeyPath(), mainSettings.getJumpHost());
     }
 
     public void initializeCluster() {
         System.out.println(ConsoleColors.BLUE_BOLD + "\n=== Creating infrastructure resources ===\n" + ConsoleColors.RESET);
-        network = findOrCreateNetwork();
-        firewall = createFirewall();
-        sshKey = createSSH();
-
-        createServers(serverMap);
+        inventory = stateCache.loadInventory(hetznerClient);
+        // None of these depend on each other, so they are set up concurrently
+        CompletableFuture<Network> networkFuture = asyncHetznerClient.supply(this::findOrCreateNetwork);
+        CompletableFuture<Firewall> firewallFuture = asyncHetznerClient.supply(this::createFirewall);
+        CompletableFuture<SSHKey> sshKeyFuture = asyncHetznerClient.supply(this::createSSH);
+        CompletableFuture<PlacementGroup> mastersPlacementGroupFuture = asyncHetznerClient.supply(() -> createPlacementGroup(mainSettings.getClusterName() + "-masters"));
+        network = AsyncHetznerClient.await(networkFuture);
+        firewall = AsyncHetznerClient.await(firewallFuture);
+        sshKey = AsyncHetznerClient.await(sshKeyFuture);
+
+        createServers(serverMap, AsyncHetznerClient.await(mastersPlacementGroupFuture));
         loadBalancer = createLoadBalancer();
+        stateCache.save(inventory, sshKey);
 
         waitForAllServersToComeUp(serverMap);
 
-        KubernetesInstaller kubernetesInstaller = new KubernetesInstaller(mainSettings, hetznerClient, loadBalancer, serverMap, network, firewall, sshKey);
+        KubernetesInstaller kubernetesInstaller = new KubernetesInstaller(mainSettings, hetznerClient, stateCache, loadBalancer, serverMap, network, firewall, sshKey);
         kubernetesInstaller.startInstallation();
 
         System.out.println(ConsoleColors.BLUE_BOLD + "%n=== Finished creating infrastructure resources ===%n" + ConsoleColors.RESET);
@@ -76,7 +90,7 @@ public class CreateCluster {
         }
         Loadbalancer loadbalancer = new Loadbalancer(hetznerClient);
         String loadBalancerName = mainSettings.getClusterName() + "-api";
-        LoadBalancer loadBalancer = loadbalancer.find(loadBalancerName);
+        LoadBalancer loadBalancer = inventory.findLoadBalancer(loadBalancerName);
         if (loadBalancer != null) {
             System.out.println("Load balancer has private IP : " + ConsoleColors.BLUE + loadBalancer.getPrivateNet().getFirst().getIp() + ConsoleColors.RESET);
             if (!mainSettings.isPrivateApiLoadBalancer()) {
@@ -91,15 +105,7 @@ public class CreateCluster {
                 mainSettings.isPrivateApiLoadBalancer(),
                 mainSettings.getMastersPool().getLocation()
         );
-        if (!mainSettings.isPrivateApiLoadBalancer()) {
-            while (true) {
-                loadBalancer = loadbalancer.find(loadBalancerName);
-                if (loadBalancer != null && StringUtils.isNotBlank(loadBalancer.getPublicIpv4())) {
-                    break;
-                }
-                sleep(2000);
-            }
-        }
+        inventory.add(loadBalancer);
         if (mainSettings.isPrivateApiLoadBalancer()) {
             System.out.println("Load balancer has private IP " + loadBalancer.getPrivateNet().getFirst().getIp());
         } else {
@@ -111,11 +117,11 @@ public class CreateCluster {
     }
 
 
-    private void createServers(Map<ServerType, List<Server>> serverList) {
+    private void createServers(Map<ServerType, List<Server>> serverList, PlacementGroup mastersPlacementGroup) {
         for (ServerType value : ServerType.values()) {
             serverList.putIfAbsent(value, new CopyOnWriteArrayList<>());
         }
-        initializeMasters(serverList.get(ServerType.MASTER));
+        initializeMasters(serverList.get(ServerType.MASTER), mastersPlacementGroup);
         initializeWorkerNodes(serverList.get(ServerType.WORKER));
     }
 
@@ -130,35 +136,20 @@ public class CreateCluster {
                 .filter(nodePool -> !(nodePool.getAutoScaling() != null && nodePool.getAutoScaling().isEnabled()))
                 .toList();
 
-        Semaphore semaphore = new Semaphore(MAX_API_CALL_CONCURRENCY);
         List<Future<Server>> futures = new ArrayList<>();
         for (NodePool nodePool : noAutoscalingWorkerNodePools) {
             List<PlacementGroup> placementGroups = createPlacementGroupsForNodePool(nodePool);
             for (int index = 0; index < nodePool.getInstanceCount(); index++) {
                 PlacementGroup placementGroup = placementGroups.get(index % placementGroups.size());
                 int finalIndex = index;
-                executeInsideSemaphore(semaphore, () -> {
-                    Future<Server> submit = VIRTUAL_THREAD_PER_TASK_EXECUTOR.submit(() ->
-                            createWorkerServer(finalIndex, nodePool, placementGroup)
-                    );
-                    futures.add(submit);
-                });
+                futures.add(VIRTUAL_THREAD_PER_TASK_EXECUTOR.submit(() ->
+                        createWorkerServer(finalIndex, nodePool, placementGroup)
+                ));
             }
         }
         waitAndAddToServerList(serverList, futures);
     }
 
-    private void executeInsideSemaphore(Semaphore semaphore, Runnable runnable) {
-        try {
-            semaphore.acquire();
-            runnable.run();
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            semaphore.release();
-        }
-    }
-
     private Server createWorkerServer(int index, NodePool nodePool, PlacementGroup placementGroup) {
         String clusterName = mainSettings.getClusterName();
         String instanceType = nodePool.getInstanceType();
@@ -168,8 +159,7 @@ public class CreateCluster {
                 mainSettings.getAdditionalPackages() : nodePool.getAdditionalPackages();
         String[] postCreateCommands = nodePool.getPostCreateCommands() == null ?
                 mainSettings.getPostCreateCommands() : nodePool.getPostCreateCommands();
-        String location = nodePool.getLocation();
-        Server server = hetznerClient.findServer(nodeName);
+        Server server = inventory.findServer(nodeName);
         if (server != null) {
             System.out.println(ConsoleColors.GREEN + "Server " + nodeName + " already exists, skipping." + ConsoleColors.RESET);
             return server;
@@ -177,7 +167,7 @@ public class CreateCluster {
         System.out.println("Creating server " + nodeName + "...");
         server = hetznerClient.createServer(
                 clusterName,
-                instanceType,
+                nodePool.getInstanceTypeCandidates(),
                 nodeName,
                 image,
                 additionalPackages == null ? List.of() : Arrays.stream(additionalPackages).toList(),
@@ -188,34 +178,29 @@ public class CreateCluster {
                 placementGroup,
                 mainSettings.isEnablePublicNetIpv4(),
                 mainSettings.isEnablePublicNetIpv6(),
-                location,
+                nodePool.getLocationCandidates(),
                 mainSettings.getSnapshotOs(),
                 mainSettings.getSshPort(),
                 "worker",
                 mainSettings.isDebug());
+        inventory.add(server);
         System.out.println("...server " + nodeName + " created.");
         return server;
     }
 
     private List<PlacementGroup> createPlacementGroupsForNodePool(NodePool nodePool) {
         int placementGroupsCount = (int) Math.ceil((double) nodePool.getInstanceCount() / MAX_INSTANCES_PER_PLACEMENT_GROUP);
-        List<PlacementGroup> placementGroups = new ArrayList<>();
+        List<CompletableFuture<PlacementGroup>> futures = new ArrayList<>();
 
         for (int index = 1; index <= placementGroupsCount; index++) {
             String placementGroupName = mainSettings.getClusterName() + "-" + nodePool.getName() + "-" + index;
-            PlacementGroup placementGroup = createPlacementGroup(placementGroupName);
-            placementGroups.add(placementGroup);
+            futures.add(asyncHetznerClient.supply(() -> createPlacementGroup(placementGroupName)));
         }
 
-        return placementGroups;
+        return futures.stream().map(AsyncHetznerClient::await).toList();
     }
 
-    private void initializeMasters(List<Server> serverList) {
-        String placementGroupName = mainSettings.getClusterName() + "-masters";
-        PlacementGroup placementGroup = createPlacementGroup(placementGroupName);
-
-        Semaphore semaphore = new Semaphore(MAX_API_CALL_CONCURRENCY);
-
+    private void initializeMasters(List<Server> serverList, PlacementGroup placementGroup) {
         long instanceCount = mainSettings.getMastersPool().getInstanceCount();
 
         List<Future<Server>> futures = new ArrayList<>();
@@ -225,12 +210,9 @@ public class CreateCluster {
                 Server masterServer = createMasterServer(placementGroup, finalI);
                 serverList.add(masterServer);
             } else {
-                executeInsideSemaphore(semaphore, () -> {
-                    Future<Server> future = VIRTUAL_THREAD_PER_TASK_EXECUTOR.submit(() ->
+                futures.add(VIRTUAL_THREAD_PER_TASK_EXECUTOR.submit(() ->
                         createMasterServer(placementGroup, finalI)
-                    );
-                    futures.add(future);
-                });
+                ));
             }
         }
         waitAndAddToServerList(serverList, futures);
@@ -243,8 +225,7 @@ public class CreateCluster {
         String image = getMasterImage();
         String[] additionalPackages = getMasterAdditionalPackage();
         String[] masterPostCreateCommands = getMasterPostCreateCommands();
-        String location = mainSettings.getMastersPool().getLocation();
-        Server server = hetznerClient.findServer(masterName);
+        Server server = inventory.findServer(masterName);
         if (server != null) {
             System.out.println(ConsoleColors.GREEN + "Server " + masterName + " already exists, skipping." + ConsoleColors.RESET);
             return server;
@@ -252,7 +233,7 @@ public class CreateCluster {
         System.out.println("Creating server " + masterName + "...");
         server = hetznerClient.createServer(
                 clusterName,
-                instanceType,
+                mainSettings.getMastersPool().getInstanceTypeCandidates(),
                 masterName,
                 image,
                 additionalPackages == null ? List.of() : Arrays.stream(additionalPackages).toList(),
@@ -263,12 +244,13 @@ public class CreateCluster {
                 placementGroup,
                 mainSettings.isEnablePublicNetIpv4(),
                 mainSettings.isEnablePublicNetIpv6(),
-                location,
+                mainSettings.getMastersPool().getLocationCandidates(),
                 mainSettings.getSnapshotOs(),
                 mainSettings.getSshPort(),
                 "master",
                 mainSettings.isDebug()
         );
+        inventory.add(server);
         System.out.println("...server " + masterName + " created.");
         return server;
     }
@@ -290,13 +272,14 @@ public class CreateCluster {
 
     private PlacementGroup createPlacementGroup(String placementGroupName) {
         io.easystartup.cloud.hetzner.placementgroup.PlacementGroup pg = new io.easystartup.cloud.hetzner.placementgroup.PlacementGroup(hetznerClient);
-        PlacementGroup placementGroup = pg.find(placementGroupName);
+        PlacementGroup placementGroup = inventory.findPlacementGroup(placementGroupName);
         if (placementGroup != null) {
             System.out.println("Placement group " + placementGroupName + " already exists, skipping.");
             return placementGroup;
         }
         System.out.println("Creating placement group " + placementGroupName + "...");
-        placementGroup = pg.create(placementGroupName);
+        placementGroup = pg.create(mainSettings.getClusterName(), placementGroupName);
+        inventory.add(placementGroup);
         System.out.println("done creating placement group " + placementGroup.getName());
         return placementGroup;
     }
@@ -305,7 +288,10 @@ public class CreateCluster {
         io.easystartup.cloud.hetzner.ssh.SSHKey keys = new io.easystartup.cloud.hetzner.ssh.SSHKey(hetznerClient);
         String clusterName = mainSettings.getClusterName();
         String publicSSHKeyPath = mainSettings.getPublicSSHKeyPath();
-        SSHKey sshKey = keys.find(publicSSHKeyPath);
+        SSHKey sshKey = stateCache.getSshKey(publicSSHKeyPath);
+        if (sshKey == null) {
+            sshKey = keys.find(publicSSHKeyPath);
+        }
         if (sshKey != null) {
             System.out.println("SSH Key already exists, skipping.");
             return sshKey;
@@ -324,13 +310,16 @@ public class CreateCluster {
         int sshPort = mainSettings.getSshPort();
         String privateNetworkSubnet = mainSettings.getPrivateNetworkSubnet();
 
-        Firewall fw = firewall.find(firewallName);
-        if (fw != null) {
+        Firewall fw = inventory.findFirewall(firewallName);
+        if (fw != null && stateCache.isSettingsUnchanged()) {
+            System.out.println("Firewall already up to date, skipping.");
+        } else if (fw != null) {
             System.out.println("Updating firewall...");
             firewall.update(fw.getId(), sshAllowedNetworks, apiAllowedNetworks, highAvailability, sshPort, privateNetworkSubnet);
         } else {
             System.out.println("Creating firewall...");
-            fw = firewall.create(firewallName, sshAllowedNetworks, apiAllowedNetworks, highAvailability, sshPort, privateNetworkSubnet);
+            fw = firewall.create(mainSettings.getClusterName(), firewallName, sshAllowedNetworks, apiAllowedNetworks, highAvailability, sshPort, privateNetworkSubnet);
+            inventory.add(fw);
         }
         return fw;
     }
@@ -351,7 +340,7 @@ public class CreateCluster {
         String location = mainSettings.getMastersPool().getLocation();
         String privateNetworkSubnet = mainSettings.getPrivateNetworkSubnet();
 
-        Network network = nw.find(networkName);
+        Network network = inventory.findNetwork(networkName);
         if (network != null) {
             System.out.println("Network " + networkName + " exists");
             return network;
@@ -359,16 +348,14 @@ public class CreateCluster {
         System.out.println("Creating network");
         io.easystartup.cloud.hetzner.location.Location location1 = new io.easystartup.cloud.hetzner.location.Location(hetznerClient);
         Location hetznerLocation = location1.getLocation(location);
-        return nw.create(networkName, privateNetworkSubnet, hetznerLocation.getNetworkZone());
+        network = nw.create(mainSettings.getClusterName(), networkName, privateNetworkSubnet, hetznerLocation.getNetworkZone());
+        inventory.add(network);
+        return network;
     }
 
     private void waitForAllServersToComeUp(Map<ServerType, List<Server>> serverMap) {
-        for (Map.Entry<ServerType, List<Server>> serverTypeListEntry : serverMap.entrySet()) {
-            List<Server> value = serverTypeListEntry.getValue();
-            for (Server server : value) {
-                waitForServerToComeUp(server, ssh, mainSettings, false);
-            }
-        }
+        List<Server> servers = serverMap.values().stream().flatMap(List::stream).toList();
+        waitForServersToComeUp(servers, ssh, mainSettings, false);
     }
 
     private void waitAndAddToServerList(List<Server> serverList, List<Future<Server>> futures) {
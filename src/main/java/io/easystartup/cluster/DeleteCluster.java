@@ -1,21 +1,22 @@
 package io.easystartup.cluster;
 
 import io.easystartup.cloud.hetzner.HetznerClient;
+import io.easystartup.cloud.hetzner.inventory.ResourceInventory;
 import io.easystartup.cloud.hetzner.loadbalancer.Loadbalancer;
+import io.easystartup.cluster.state.ClusterStateCache;
 import io.easystartup.configuration.MainSettings;
 import io.easystartup.configuration.NodePool;
 import io.easystartup.utils.ConsoleColors;
 import io.easystartup.utils.SSH;
-import io.easystartup.utils.Util;
 import me.tomsdevsn.hetznercloud.objects.general.*;
 import org.apache.commons.collections4.CollectionUtils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.*;
 
 /*
  * @author indianBond
@@ -25,28 +26,32 @@ public class DeleteCluster {
     private static final int MAX_INSTANCES_PER_PLACEMENT_GROUP = 10;
     private final MainSettings mainSettings;
     private final HetznerClient hetznerClient;
+    private ResourceInventory inventory;
     private final Map<CreateCluster.ServerType, List<Server>> serverMap = new ConcurrentHashMap();
 
     private final SSH ssh;
+    // Concurrency of the actual api calls is bounded by the rate limit aware scheduler inside HetznerClient
+    private final ExecutorService VIRTUAL_THREAD_PER_TASK_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
 
     public DeleteCluster(MainSettings mainSettings) {
         this.mainSettings = mainSettings;
         this.hetznerClient = new HetznerClient(mainSettings.getHetznerToken());
-        this.ssh = new SSH(mainSettings.getPrivateSSHKeyPath(), mainSettings.getPublicSSHKeyPath());
+        this.ssh = new SSH(mainSettings.getPrivateSSHKeyPath(), mainSettings.getPublicSSHKeyPath(), mainSettings.getJumpHost());
     }
 
     public void deleteCluster() {
         System.out.println(ConsoleColors.BLUE_BOLD + "\n=== Deleting infrastructure resources ===\n" + ConsoleColors.RESET);
+        inventory = ResourceInventory.load(hetznerClient, mainSettings.getClusterName());
         deleteLoadBalancer();
 
         deleteServers(serverMap);
         findAndDeleteNetworks();
         // Need to delete firewall in the end because it does not allow to delete unless all servers are deleted
-        Util.sleep(15_000L);
         deleteFirewall();
         System.out.println("Not deleting SSH, in case its being used with other boxes");
 
         deleteSSH();
+        new ClusterStateCache(mainSettings).delete();
     }
 
     private void deleteLoadBalancer() {
@@ -55,9 +60,10 @@ public class DeleteCluster {
         }
         Loadbalancer loadbalancer = new Loadbalancer(hetznerClient);
         String loadBalancerName = mainSettings.getClusterName() + "-api";
-        LoadBalancer loadBalancer = loadbalancer.find(loadBalancerName);
+        LoadBalancer loadBalancer = inventory.findLoadBalancer(loadBalancerName);
         if (loadBalancer != null) {
             loadbalancer.delete(loadBalancer.getId());
+            inventory.remove(loadBalancer);
         }
     }
 
@@ -77,22 +83,29 @@ public class DeleteCluster {
                 .filter(nodePool -> !(nodePool.getAutoScaling() != null && nodePool.getAutoScaling().isEnabled()))
                 .toList();
 
+        List<Future<Server>> futures = new ArrayList<>();
         for (NodePool nodePool : noAutoscalingWorkerNodePools) {
             deletePlacementGroup(nodePool);
             for (int index = 0; index < nodePool.getInstanceCount(); index++) {
-                deleteWorkerServer(index, nodePool);
+                int finalIndex = index;
+                futures.add(VIRTUAL_THREAD_PER_TASK_EXECUTOR.submit(() -> deleteWorkerServer(finalIndex, nodePool)));
             }
         }
+        for (Server workerServer : waitForAll(futures)) {
+            serverList.add(workerServer);
+        }
     }
 
-    private void deleteWorkerServer(int index, NodePool nodePool) {
+    private Server deleteWorkerServer(int index, NodePool nodePool) {
         String clusterName = mainSettings.getClusterName();
         String nodeName = String.format("%s-%s-pool-%s-worker%s", clusterName, nodePool.getInstanceType(), nodePool.getName(), index + 1);
-        Server server = hetznerClient.findServer(nodeName);
+        Server server = inventory.findServer(nodeName);
         if (server != null) {
             System.out.println("Deleting node " + nodeName);
-            hetznerClient.deleteServer(server.getId());
+            hetznerClient.deleteServer(server.getId()).join();
+            inventory.remove(server);
         }
+        return server;
     }
 
     private void deletePlacementGroup(NodePool nodePool) {
@@ -109,20 +122,37 @@ public class DeleteCluster {
         deletePlacementGroup(placementGroupName);
 
         long instanceCount = mainSettings.getMastersPool().getInstanceCount();
+        List<Future<Server>> futures = new ArrayList<>();
         for (int i = 0; i < instanceCount; i++) {
-            Server masterServer = deleteMaster(i);
+            int finalI = i;
+            futures.add(VIRTUAL_THREAD_PER_TASK_EXECUTOR.submit(() -> deleteMaster(finalI)));
+        }
+        for (Server masterServer : waitForAll(futures)) {
             serverList.add(masterServer);
         }
     }
 
+    private <T> List<T> waitForAll(List<? extends Future<T>> futures) {
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (Throwable throwable) {
+                throw new RuntimeException(throwable);
+            }
+        }
+        return results;
+    }
+
     private Server deleteMaster(int i) {
         String clusterName = mainSettings.getClusterName();
         String instanceType = mainSettings.getMastersPool().getInstanceType();
         String masterName = String.format("%s-%s-master%s", clusterName, instanceType, i + 1);
-        Server server = hetznerClient.findServer(masterName);
+        Server server = inventory.findServer(masterName);
         if (server != null) {
             System.out.println("Deleting server " + masterName);
-            hetznerClient.deleteServer(server.getId());
+            hetznerClient.deleteServer(server.getId()).join();
+            inventory.remove(server);
             return server;
         }
 
@@ -131,10 +161,11 @@ public class DeleteCluster {
 
     private void deletePlacementGroup(String placementGroupName) {
         io.easystartup.cloud.hetzner.placementgroup.PlacementGroup pg = new io.easystartup.cloud.hetzner.placementgroup.PlacementGroup(hetznerClient);
-        PlacementGroup placementGroup = pg.find(placementGroupName);
+        PlacementGroup placementGroup = inventory.findPlacementGroup(placementGroupName);
         if (placementGroup != null) {
             System.out.println("Deleting placement group " + placementGroupName);
             pg.delete(placementGroup.getId());
+            inventory.remove(placementGroup);
         }
     }
 
@@ -152,10 +183,11 @@ public class DeleteCluster {
     private void deleteFirewall() {
         io.easystartup.cloud.hetzner.firewall.Firewall firewall = new io.easystartup.cloud.hetzner.firewall.Firewall(hetznerClient);
         String firewallName = mainSettings.getClusterName();
-        Firewall fw = firewall.find(firewallName);
+        Firewall fw = inventory.findFirewall(firewallName);
         if (fw != null) {
             System.out.println("Deleting firewall...");
             firewall.delete(fw.getId());
+            inventory.remove(fw);
         }
     }
 
@@ -166,7 +198,7 @@ public class DeleteCluster {
     private void deleteClusterNetwork() {
         io.easystartup.cloud.hetzner.network.Network nw = new io.easystartup.cloud.hetzner.network.Network(hetznerClient);
         String networkName = mainSettings.getClusterName();
-        Network network = nw.find(networkName);
+        Network network = inventory.findNetwork(networkName);
         if (network != null) {
             if (CollectionUtils.isNotEmpty(network.getRoutes())) {
                 Optional<Route> first = network.getRoutes().stream().filter(val -> val.getDestination().equals("0.0.0.0/0")).findFirst();
@@ -177,6 +209,7 @@ public class DeleteCluster {
             }
             System.out.println("Network " + networkName + " deleted");
             nw.delete(network.getId());
+            inventory.remove(network);
         }
     }
 
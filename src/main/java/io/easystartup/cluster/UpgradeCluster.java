@@ -2,8 +2,8 @@ package io.easystartup.cluster;
 
 import io.easystartup.configuration.MainSettings;
 import io.easystartup.configuration.NodePool;
+import io.easystartup.kubernetes.client.KubernetesClient;
 import io.easystartup.utils.ConsoleColors;
-import io.easystartup.utils.ShellUtil;
 import io.easystartup.utils.TemplateUtil;
 import io.easystartup.utils.Util;
 
@@ -34,8 +34,6 @@ public class UpgradeCluster {
     public void upgradeCluster() {
         System.out.println(ConsoleColors.BLUE_BOLD + "\n=== K3s version upgrade ===\n" + ConsoleColors.RESET);
 
-        Util.checkKubectl();
-
         upgradeMaster();
         upgradeWorkers();
 
@@ -61,15 +59,13 @@ public class UpgradeCluster {
         worokerUpgradeData.put("new_k3s_version", newK3sVersion);
         worokerUpgradeData.put("worker_upgrade_concurrency", concurrency);
         String upgradeWorkerManifest = TemplateUtil.renderTemplate(TemplateUtil.UPGRADE_PLAN_MANIFEST_FOR_WORKERS, worokerUpgradeData);
-        String command = "kubectl apply -f - <<EOF\n" + upgradeWorkerManifest + "\nEOF";
-
-        ShellUtil.ShellResult result = ShellUtil.run(command, mainSettings.getKubeconfigPath(), mainSettings.getHetznerToken());
 
-        if (!result.isSuccess()) {
+        try {
+            KubernetesClient.forKubeconfig(mainSettings.getKubeconfigPath()).applyManifest(upgradeWorkerManifest);
+        } catch (RuntimeException e) {
             System.out.println("Failed to create upgrade plan for workers");
-            System.out.println(result.getOutput());
-            System.out.println(result.getStatus());
-            throw new RuntimeException("Failed to create upgrade plan for workers");
+            System.out.println(e.getMessage());
+            throw new RuntimeException("Failed to create upgrade plan for workers", e);
         }
 
         System.out.println("...workers upgrade plan created.");
@@ -81,15 +77,13 @@ public class UpgradeCluster {
         Map<String, Object> masterUpgradeManifestData = new HashMap<>();
         masterUpgradeManifestData.put("new_k3s_version", newK3sVersion);
         String upgradeMasterManifest = TemplateUtil.renderTemplate(TemplateUtil.UPGRADE_PLAN_MANIFEST_FOR_MASTERS, masterUpgradeManifestData);
-        String command = "kubectl apply -f - <<EOF\n" + upgradeMasterManifest + "\nEOF";
 
-        ShellUtil.ShellResult result = ShellUtil.run(command, mainSettings.getKubeconfigPath(), mainSettings.getHetznerToken());
-
-        if (!result.isSuccess()) {
+        try {
+            KubernetesClient.forKubeconfig(mainSettings.getKubeconfigPath()).applyManifest(upgradeMasterManifest);
+        } catch (RuntimeException e) {
             System.out.println("Failed to create upgrade plan for master controlplane");
-            System.out.println(result.getOutput());
-            System.out.println(result.getStatus());
-            throw new RuntimeException("Failed to create upgrade plan for master");
+            System.out.println(e.getMessage());
+            throw new RuntimeException("Failed to create upgrade plan for master", e);
         }
 
         System.out.println("...master upgrade plan created.");
@@ -0,0 +1,168 @@
+package io.easystartup.cluster.state;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * @author indianBond
+ *
+ * Contents of ~/.k3s-simplified/<cluster name>/state.json
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ClusterState {
+
+    public ClusterState() {
+    }
+
+    @JsonProperty("settings_fingerprint")
+    private String settingsFingerprint;
+
+    @JsonProperty("servers")
+    private Map<String, ServerEntry> servers = new LinkedHashMap<>();
+
+    // Snapshots of the hetzner objects, as returned by the api
+    @JsonProperty("networks")
+    private List<JsonNode> networks = new ArrayList<>();
+
+    @JsonProperty("firewalls")
+    private List<JsonNode> firewalls = new ArrayList<>();
+
+    @JsonProperty("placement_groups")
+    private List<JsonNode> placementGroups = new ArrayList<>();
+
+    @JsonProperty("load_balancers")
+    private List<JsonNode> loadBalancers = new ArrayList<>();
+
+    @JsonProperty("ssh_key")
+    private JsonNode sshKey;
+
+    @JsonProperty("k3s_token")
+    private String k3sToken;
+
+    @JsonProperty("certificate_path")
+    private String certificatePath;
+
+    public String getSettingsFingerprint() {
+        return settingsFingerprint;
+    }
+
+    public void setSettingsFingerprint(String settingsFingerprint) {
+        this.settingsFingerprint = settingsFingerprint;
+    }
+
+    public Map<String, ServerEntry> getServers() {
+        return servers;
+    }
+
+    public void setServers(Map<String, ServerEntry> servers) {
+        this.servers = servers;
+    }
+
+    public List<JsonNode> getNetworks() {
+        return networks;
+    }
+
+    public void setNetworks(List<JsonNode> networks) {
+        this.networks = networks;
+    }
+
+    public List<JsonNode> getFirewalls() {
+        return firewalls;
+    }
+
+    public void setFirewalls(List<JsonNode> firewalls) {
+        this.firewalls = firewalls;
+    }
+
+    public List<JsonNode> getPlacementGroups() {
+        return placementGroups;
+    }
+
+    public void setPlacementGroups(List<JsonNode> placementGroups) {
+        this.placementGroups = placementGroups;
+    }
+
+    public List<JsonNode> getLoadBalancers() {
+        return loadBalancers;
+    }
+
+    public void setLoadBalancers(List<JsonNode> loadBalancers) {
+        this.loadBalancers = loadBalancers;
+    }
+
+    public JsonNode getSshKey() {
+        return sshKey;
+    }
+
+    public void setSshKey(JsonNode sshKey) {
+        this.sshKey = sshKey;
+    }
+
+    public String getK3sToken() {
+        return k3sToken;
+    }
+
+    public void setK3sToken(String k3sToken) {
+        this.k3sToken = k3sToken;
+    }
+
+    public String getCertificatePath() {
+        return certificatePath;
+    }
+
+    public void setCertificatePath(String certificatePath) {
+        this.certificatePath = certificatePath;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class ServerEntry {
+
+        public ServerEntry() {
+        }
+
+        public ServerEntry(long id, String privateIp, String publicIp) {
+            this.id = id;
+            this.privateIp = privateIp;
+            this.publicIp = publicIp;
+        }
+
+        @JsonProperty("id")
+        private long id;
+
+        @JsonProperty("private_ip")
+        private String privateIp;
+
+        @JsonProperty("public_ip")
+        private String publicIp;
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public String getPrivateIp() {
+            return privateIp;
+        }
+
+        public void setPrivateIp(String privateIp) {
+            this.privateIp = privateIp;
+        }
+
+        public String getPublicIp() {
+            return publicIp;
+        }
+
+        public void setPublicIp(String publicIp) {
+            this.publicIp = publicIp;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package io.easystartup.cluster.state;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.easystartup.cloud.hetzner.HetznerApiException;
+import io.easystartup.cloud.hetzner.HetznerClient;
+import io.easystartup.cloud.hetzner.HetznerTransport;
+import io.easystartup.cloud.hetzner.inventory.ResourceInventory;
+import io.easystartup.configuration.MainSettings;
+import io.easystartup.utils.ConsoleColors;
+import me.tomsdevsn.hetznercloud.objects.general.*;
+import org.apache.commons.collections4.CollectionUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+ * @author indianBond
+ *
+ * Local cache of what a previous run found or created for the cluster, so that re-runs and scale ups don't have to
+ * rediscover everything. The cache is validated against the label selector listings of the cluster (one call per
+ * resource type, all at once): the servers with their ids and ips have to be exactly the ones recorded, and every cached
+ * network, firewall, placement group and load balancer has to still exist. Those which aren't labelled (created by older
+ * versions) aren't in the listings, they are checked by id. On any mismatch the cached state is dropped, the listings
+ * are used as they are and the state file is rewritten.
+ */
+public class ClusterStateCache {
+
+    private static final ObjectMapper OBJECT_MAPPER = HetznerTransport.getObjectMapper();
+
+    private final MainSettings mainSettings;
+    private final Path stateFile;
+    private final String settingsFingerprint;
+    private ClusterState state;
+    private boolean valid;
+    private boolean settingsUnchanged;
+
+    public ClusterStateCache(MainSettings mainSettings) {
+        this.mainSettings = mainSettings;
+        this.stateFile = Paths.get(System.getProperty("user.home"), ".k3s-simplified", mainSettings.getClusterName(), "state.json");
+        this.settingsFingerprint = fingerprint(mainSettings);
+        this.state = read();
+    }
+
+    public ResourceInventory loadInventory(HetznerClient hetznerClient) {
+        ResourceInventory inventory = ResourceInventory.load(hetznerClient, mainSettings.getClusterName());
+        if (state != null && matches(inventory.getServers()) && restore(hetznerClient.getTransport(), inventory)) {
+            valid = true;
+            settingsUnchanged = settingsFingerprint != null && settingsFingerprint.equals(state.getSettingsFingerprint());
+            System.out.println("Using cached cluster state from " + stateFile);
+            return inventory;
+        }
+        if (state != null) {
+            System.out.println(ConsoleColors.YELLOW + "Cached cluster state is out of date, discovering resources again" + ConsoleColors.RESET);
+        }
+        state = new ClusterState();
+        return inventory;
+    }
+
+    /**
+     * True when the state was validated and was produced by exactly the same settings as this run
+     */
+    public boolean isSettingsUnchanged() {
+        return settingsUnchanged;
+    }
+
+    /**
+     * Cached key is only returned if it is still the same public key as the one in the config
+     */
+    public SSHKey getSshKey(String publicSSHKeyPath) {
+        if (!valid || state.getSshKey() == null) {
+            return null;
+        }
+        SSHKey sshKey = HetznerTransport.convert(state.getSshKey(), SSHKey.class);
+        try {
+            String keyFingerprint = io.easystartup.cloud.hetzner.ssh.SSHKey.calculateFingerprint(publicSSHKeyPath);
+            return Objects.equals(sshKey.getFingerprint(), keyFingerprint) ? sshKey : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public String getK3sToken() {
+        return valid ? state.getK3sToken() : null;
+    }
+
+    public String getCertificatePath() {
+        return valid ? state.getCertificatePath() : null;
+    }
+
+    public synchronized void save(ResourceInventory inventory, SSHKey sshKey) {
+        state.setSettingsFingerprint(settingsFingerprint);
+        state.setServers(inventory.getServers().stream()
+                .collect(Collectors.toMap(Server::getName, server -> new ClusterState.ServerEntry(server.getId(), privateIp(server), publicIp(server)))));
+        state.setNetworks(snapshot(inventory.getNetworks()));
+        state.setFirewalls(snapshot(inventory.getFirewalls()));
+        state.setPlacementGroups(snapshot(inventory.getPlacementGroups()));
+        state.setLoadBalancers(snapshot(inventory.getLoadBalancers()));
+        state.setSshKey(sshKey == null ? null : OBJECT_MAPPER.valueToTree(sshKey));
+        write();
+        valid = true;
+    }
+
+    public synchronized void saveK3sToken(String k3sToken) {
+        state.setK3sToken(k3sToken);
+        write();
+    }
+
+    public synchronized void saveCertificatePath(String certificatePath) {
+        state.setCertificatePath(certificatePath);
+        write();
+    }
+
+    public void delete() {
+        try {
+            Files.deleteIfExists(stateFile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private boolean matches(List<Server> servers) {
+        Map<String, ClusterState.ServerEntry> cachedServers = state.getServers();
+        if (cachedServers == null || cachedServers.size() != servers.size()) {
+            return false;
+        }
+        for (Server server : servers) {
+            ClusterState.ServerEntry entry = cachedServers.get(server.getName());
+            if (entry == null
+                    || entry.getId() != server.getId()
+                    || !Objects.equals(entry.getPrivateIp(), privateIp(server))
+                    || !Objects.equals(entry.getPublicIp(), publicIp(server))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * False as soon as a cached resource turns out to be deleted
+     */
+    private boolean restore(HetznerTransport transport, ResourceInventory inventory) {
+        return restore(transport, state.getNetworks(), inventory.getNetworks(), Network::getId, "networks", "network", Network.class, inventory::add)
+                && restore(transport, state.getFirewalls(), inventory.getFirewalls(), Firewall::getId, "firewalls", "firewall", Firewall.class, inventory::add)
+                && restore(transport, state.getPlacementGroups(), inventory.getPlacementGroups(), PlacementGroup::getId, "placement_groups", "placement_group", PlacementGroup.class, inventory::add)
+                && restore(transport, state.getLoadBalancers(), inventory.getLoadBalancers(), LoadBalancer::getId, "load_balancers", "load_balancer", LoadBalancer.class, inventory::add);
+    }
+
+    /**
+     * Resources in the listing are up to date already, the others are fetched by id and added to the inventory
+     */
+    private static <T> boolean restore(HetznerTransport transport, List<JsonNode> cached, List<T> listed, Function<T, Long> idFunction,
+                                       String path, String key, Class<T> type, Consumer<T> add) {
+        if (cached == null) {
+            return true;
+        }
+        Set<Long> listedIds = listed.stream().map(idFunction).collect(Collectors.toSet());
+        for (JsonNode node : cached) {
+            long id = node.path("id").asLong();
+            if (listedIds.contains(id)) {
+                continue;
+            }
+            try {
+                add.accept(HetznerTransport.convert(transport.get("/" + path + "/" + id, JsonNode.class).path(key), type));
+            } catch (HetznerApiException e) {
+                if (e.getStatusCode() == 404) {
+                    return false;
+                }
+                throw e;
+            }
+        }
+        return true;
+    }
+
+    private static List<JsonNode> snapshot(List<?> resources) {
+        return resources.stream().map(resource -> (JsonNode) OBJECT_MAPPER.valueToTree(resource)).toList();
+    }
+
+    private static String privateIp(Server server) {
+        return CollectionUtils.isNotEmpty(server.getPrivateNet()) ? server.getPrivateNet().get(0).getIp() : null;
+    }
+
+    private static String publicIp(Server server) {
+        PublicNet publicNet = server.getPublicNet();
+        return publicNet != null && publicNet.getIpv4() != null ? publicNet.getIpv4().getIp() : null;
+    }
+
+    private ClusterState read() {
+        if (!Files.exists(stateFile)) {
+            return null;
+        }
+        try {
+            return OBJECT_MAPPER.readValue(stateFile.toFile(), ClusterState.class);
+        } catch (IOException e) {
+            System.out.println(ConsoleColors.YELLOW + "Ignoring unreadable cluster state " + stateFile + ConsoleColors.RESET);
+            return null;
+        }
+    }
+
+    private void write() {
+        try {
+            Files.createDirectories(stateFile.getParent());
+            // Written to a temp file and moved, so an interrupted run never leaves a half written state behind
+            Path tempFile = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+            OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(tempFile.toFile(), state);
+            try {
+                // Contains the k3s token
+                Files.setPosixFilePermissions(tempFile, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException ignored) {
+            }
+            Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println(ConsoleColors.YELLOW + "Unable to save cluster state to " + stateFile + ": " + e.getMessage() + ConsoleColors.RESET);
+        }
+    }
+
+    private static String fingerprint(MainSettings mainSettings) {
+        try {
+            byte[] settings = OBJECT_MAPPER.writeValueAsBytes(mainSettings);
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(settings));
+        } catch (IOException | NoSuchAlgorithmException e) {
+            // Without a fingerprint the settings are always treated as changed
+            return null;
+        }
+    }
+}
@@ -6,9 +6,11 @@ package io.easystartup.configuration;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import io.easystartup.cloud.hetzner.AsyncHetznerClient;
 import io.easystartup.cloud.hetzner.HetznerClient;
 import io.easystartup.cloud.hetzner.location.Location;
 import io.easystartup.cloud.hetzner.network.Network;
+import io.easystartup.utils.ConsoleColors;
 import io.easystartup.utils.Releases;
 import me.tomsdevsn.hetznercloud.objects.enums.Architecture;
 import me.tomsdevsn.hetznercloud.objects.general.ServerType;
@@ -24,6 +26,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -36,6 +39,7 @@ public class ConfigurationLoader {
     private HetznerClient hetznerClient;
     private final List<String> errors = new ArrayList<>();
     private final Set<String> serverTypes;
+    private final Map<String, ServerType> fullServerTypes;
     private final MainSettings settings; // Assuming MainSettings is a class that represents your configuration
 
     // Constructor
@@ -60,7 +64,7 @@ public class ConfigurationLoader {
         validateHetznerToken(errors);
         this.hetznerClient = new HetznerClient(settings.getHetznerToken());
 
-        Map<String, ServerType> fullServerTypes = hetznerClient.getServerTypes().stream().collect(Collectors.toMap(ServerType::getName, Function.identity()));
+        fullServerTypes = hetznerClient.getServerTypes().stream().collect(Collectors.toMap(ServerType::getName, Function.identity()));
         serverTypes = fullServerTypes.keySet();
 
         populateArchitecturesInWorkerNodePools(fullServerTypes);
@@ -111,6 +115,23 @@ public class ConfigurationLoader {
         validateCreateSettings(errors);
     }
 
+    /**
+     * Validation together with the pre-flight capacity check for create, both run at the same time
+     */
+    public void validateWithCapacityPlan() {
+        PreflightPlanner planner = new PreflightPlanner(settings, hetznerClient, fullServerTypes);
+        CompletableFuture<List<String>> capacityErrors = new AsyncHetznerClient(hetznerClient).supply(planner::plan);
+        validate();
+        try {
+            List<String> planErrors = AsyncHetznerClient.await(capacityErrors);
+            System.out.println(ConsoleColors.BLUE_BOLD + "\n=== Pre-flight capacity plan ===\n" + ConsoleColors.RESET);
+            System.out.println(planner.getReport());
+            errors.addAll(planErrors);
+        } catch (RuntimeException e) {
+            System.out.println(ConsoleColors.YELLOW + "Skipping pre-flight capacity check: " + e.getMessage() + ConsoleColors.RESET);
+        }
+    }
+
     private void validateCreateSettings(List<String> errors) {
         validateClusterName(errors);
         validateKubeConfigPath(errors);
@@ -163,6 +184,7 @@ public class ConfigurationLoader {
     private void validateNode(List<String> errors, Set<String> locations, NodePool nodePool) {
         validateInstanceType(errors, nodePool);
         validateLocation(errors, locations, nodePool);
+        validateFallbacks(errors, locations, nodePool);
         validateLabels(errors, nodePool);
         validateTaints(errors, nodePool);
         validateAutoScaling(errors, nodePool);
@@ -224,6 +246,35 @@ public class ConfigurationLoader {
         }
     }
 
+    /**
+     * Fallbacks have to be interchangeable with the primary choice: same architecture so the image still boots, and
+     * same network zone so the server can still join the cluster network
+     */
+    private void validateFallbacks(List<String> errors, Set<String> locations, NodePool nodePool) {
+        if (nodePool.getFallbackInstanceTypes() != null) {
+            ServerType primary = fullServerTypes.get(nodePool.getInstanceType());
+            for (String fallbackInstanceType : nodePool.getFallbackInstanceTypes()) {
+                ServerType fallback = fullServerTypes.get(fallbackInstanceType);
+                if (fallback == null) {
+                    errors.add(getPoolNameOrMaster(nodePool) + " node pool has an invalid fallback instance type " + fallbackInstanceType);
+                } else if (primary != null && primary.getArchitecture() != fallback.getArchitecture()) {
+                    errors.add(getPoolNameOrMaster(nodePool) + " node pool fallback instance type " + fallbackInstanceType + " has a different architecture than " + nodePool.getInstanceType());
+                }
+            }
+        }
+        if (nodePool.getFallbackLocations() != null) {
+            Location location = new Location(hetznerClient);
+            String networkZone = locations.contains(nodePool.getLocation()) ? location.getLocation(nodePool.getLocation()).getNetworkZone() : null;
+            for (String fallbackLocation : nodePool.getFallbackLocations()) {
+                if (!locations.contains(fallbackLocation)) {
+                    errors.add(getPoolNameOrMaster(nodePool) + " node pool has an invalid fallback location " + fallbackLocation);
+                } else if (networkZone != null && !networkZone.equals(location.getLocation(fallbackLocation).getNetworkZone())) {
+                    errors.add(getPoolNameOrMaster(nodePool) + " node pool fallback location " + fallbackLocation + " is not in the same network zone as " + nodePool.getLocation());
+                }
+            }
+        }
+    }
+
     private void validateInstanceType(List<String> errors, NodePool nodePool) {
         boolean contains = serverTypes.contains(nodePool.getInstanceType());
         if (!contains) {
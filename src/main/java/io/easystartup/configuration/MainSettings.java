@@ -93,6 +93,9 @@ public class MainSettings {
     @JsonProperty("enable_encryption")
     private boolean enableEncryption;
 
+    @JsonProperty("ssh_mux")
+    private boolean sshMux;
+
     @JsonProperty("kube_api_server_args")
     private String[] kubeApiServerArgs;
 
@@ -114,6 +117,9 @@ public class MainSettings {
     @JsonProperty("api_server_hostname")
     private String apiServerHostname;
 
+    @JsonProperty("jump_host")
+    private String jumpHost;
+
     @JsonProperty("disable_flannel")
     private boolean disableFlannel;
 
@@ -149,6 +155,9 @@ public class MainSettings {
 
     private AccessBoxConfig accessBoxConfig;
     private NatGatewayConfig natGatewayConfig;
+
+    @JsonProperty("project_limits")
+    private ProjectLimits projectLimits;
     public String getHetznerToken() {
         return hetznerToken;
     }
@@ -253,6 +262,14 @@ public class MainSettings {
         this.apiServerHostname = value;
     }
 
+    public String getJumpHost() {
+        return jumpHost;
+    }
+
+    public void setJumpHost(String jumpHost) {
+        this.jumpHost = jumpHost;
+    }
+
     public boolean getDisableFlannel() {
         return disableFlannel;
     }
@@ -457,6 +474,14 @@ public class MainSettings {
         this.enableEncryption = enableEncryption;
     }
 
+    public boolean isSshMux() {
+        return sshMux;
+    }
+
+    public void setSshMux(boolean sshMux) {
+        this.sshMux = sshMux;
+    }
+
     public String[] getKubeApiServerArgs() {
         return kubeApiServerArgs;
     }
@@ -562,6 +587,14 @@ public class MainSettings {
         this.natGatewayConfig = natGatewayConfig;
     }
 
+    public ProjectLimits getProjectLimits() {
+        return projectLimits;
+    }
+
+    public void setProjectLimits(ProjectLimits projectLimits) {
+        this.projectLimits = projectLimits;
+    }
+
     public boolean isDisableKubeProxy() {
         return disableKubeProxy;
     }
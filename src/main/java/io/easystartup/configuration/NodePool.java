@@ -4,6 +4,10 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /*
  * @author indianBond
  */
@@ -30,6 +34,12 @@ public class NodePool {
     @JsonProperty("location")
     private String location;
 
+    @JsonProperty("fallback_instance_types")
+    private String[] fallbackInstanceTypes;
+
+    @JsonProperty("fallback_locations")
+    private String[] fallbackLocations;
+
     @JsonProperty("labels")
     private KeyValuePair[] labels;
     @JsonProperty("taints")
@@ -82,6 +92,47 @@ public class NodePool {
         this.location = value;
     }
 
+    public String[] getFallbackInstanceTypes() {
+        return fallbackInstanceTypes;
+    }
+
+    public void setFallbackInstanceTypes(String[] fallbackInstanceTypes) {
+        this.fallbackInstanceTypes = fallbackInstanceTypes;
+    }
+
+    public String[] getFallbackLocations() {
+        return fallbackLocations;
+    }
+
+    public void setFallbackLocations(String[] fallbackLocations) {
+        this.fallbackLocations = fallbackLocations;
+    }
+
+    /**
+     * The instance type followed by the fallback instance types, in the order they are tried
+     */
+    @JsonIgnore
+    public List<String> getInstanceTypeCandidates() {
+        return withFallbacks(instanceType, fallbackInstanceTypes);
+    }
+
+    /**
+     * The location followed by the fallback locations, in the order they are tried
+     */
+    @JsonIgnore
+    public List<String> getLocationCandidates() {
+        return withFallbacks(location, fallbackLocations);
+    }
+
+    private static List<String> withFallbacks(String value, String[] fallbacks) {
+        List<String> candidates = new ArrayList<>();
+        candidates.add(value);
+        if (fallbacks != null) {
+            Arrays.stream(fallbacks).filter(fallback -> !candidates.contains(fallback)).forEach(candidates::add);
+        }
+        return candidates;
+    }
+
     public KeyValuePair[] getLabels() {
         return labels;
     }
@@ -0,0 +1,166 @@
+package io.easystartup.configuration;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.easystartup.cloud.hetzner.AsyncHetznerClient;
+import io.easystartup.cloud.hetzner.HetznerClient;
+import io.easystartup.cloud.hetzner.HetznerTransport;
+import io.easystartup.utils.ConsoleColors;
+import me.tomsdevsn.hetznercloud.objects.general.Server;
+import me.tomsdevsn.hetznercloud.objects.general.ServerType;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/*
+ * @author indianBond
+ *
+ * Works out, before anything is created, how many servers, cores and primary ips the config still needs and checks
+ * them against the project limits (when mentioned in the config) and against what the datacenters of each location
+ * currently have available, so that a run doesn't fail half way through creating the workers.
+ */
+public class PreflightPlanner {
+
+    private final MainSettings settings;
+    private final HetznerClient hetznerClient;
+    private final Map<String, ServerType> serverTypes;
+    private final StringBuilder report = new StringBuilder();
+
+    public PreflightPlanner(MainSettings settings, HetznerClient hetznerClient, Map<String, ServerType> serverTypes) {
+        this.settings = settings;
+        this.hetznerClient = hetznerClient;
+        this.serverTypes = serverTypes;
+    }
+
+    /**
+     * Returns the errors, the per pool report is available from getReport afterwards
+     */
+    public List<String> plan() {
+        List<String> errors = new ArrayList<>();
+        HetznerTransport transport = hetznerClient.getTransport();
+        AsyncHetznerClient asyncHetznerClient = new AsyncHetznerClient(hetznerClient);
+        CompletableFuture<List<Server>> serversFuture = asyncHetznerClient.supply(() -> transport.getAll("/servers", "servers", Server.class));
+        CompletableFuture<List<JsonNode>> primaryIpsFuture = asyncHetznerClient.supply(() -> transport.getAll("/primary_ips", "primary_ips", JsonNode.class));
+        CompletableFuture<List<JsonNode>> datacentersFuture = asyncHetznerClient.supply(() -> transport.getAll("/datacenters", "datacenters", JsonNode.class));
+
+        List<Server> servers = AsyncHetznerClient.await(serversFuture);
+        Set<String> existingServerNames = servers.stream().map(Server::getName).collect(Collectors.toSet());
+        Map<String, Set<Long>> availableServerTypesByLocation = availableServerTypesByLocation(AsyncHetznerClient.await(datacentersFuture));
+
+        report.append(String.format("%-24s %-10s %-8s %6s %6s %6s  %s%n", "POOL", "TYPE", "LOCATION", "NODES", "NEW", "CORES", "STATUS"));
+        long newServers = 0;
+        long newCores = 0;
+        for (NodePool nodePool : pools()) {
+            String poolName = isBlank(nodePool.getName()) ? "master" : nodePool.getName();
+            ServerType serverType = serverTypes.get(nodePool.getInstanceType());
+            long missing = serverNames(nodePool).stream().filter(name -> !existingServerNames.contains(name)).count();
+            long cores = serverType == null ? 0 : missing * cores(serverType);
+            newServers += missing;
+            newCores += cores;
+
+            String status = ConsoleColors.GREEN + "ok" + ConsoleColors.RESET;
+            // Unknown instance types and locations are already reported by the validation
+            if (missing > 0 && serverType != null && !isAvailable(availableServerTypesByLocation, nodePool.getInstanceType(), nodePool.getLocation())) {
+                String fallback = availableFallback(availableServerTypesByLocation, nodePool);
+                if (fallback != null) {
+                    status = ConsoleColors.YELLOW + "fallback " + fallback + ConsoleColors.RESET;
+                } else {
+                    status = ConsoleColors.RED + "unavailable" + ConsoleColors.RESET;
+                    errors.add(String.format("%s node pool: instance type %s is currently not available in %s, nor any of its fallbacks, %d servers can't be created",
+                            poolName, nodePool.getInstanceType(), nodePool.getLocation(), missing));
+                }
+            }
+            report.append(String.format("%-24s %-10s %-8s %6d %6d %6d  %s%n",
+                    poolName, nodePool.getInstanceType(), nodePool.getLocation(), nodePool.getInstanceCount(), missing, cores, status));
+        }
+
+        long primaryIpsPerServer = (settings.isEnablePublicNetIpv4() ? 1 : 0) + (settings.isEnablePublicNetIpv6() ? 1 : 0);
+        long newPrimaryIps = newServers * primaryIpsPerServer;
+        long usedCores = servers.stream().filter(server -> server.getServerType() != null).mapToLong(server -> cores(server.getServerType())).sum();
+        long usedPrimaryIps = AsyncHetznerClient.await(primaryIpsFuture).size();
+        report.append(String.format("%nNeeds %d new servers, %d cores and %d primary ips (project currently has %d servers, %d cores, %d primary ips)%n",
+                newServers, newCores, newPrimaryIps, servers.size(), usedCores, usedPrimaryIps));
+
+        ProjectLimits limits = settings.getProjectLimits();
+        if (limits != null) {
+            checkLimit(errors, "servers", limits.getServers(), servers.size(), newServers);
+            checkLimit(errors, "cores", limits.getCores(), usedCores, newCores);
+            checkLimit(errors, "primary ips", limits.getPrimaryIps(), usedPrimaryIps, newPrimaryIps);
+        }
+        return errors;
+    }
+
+    public String getReport() {
+        return report.toString();
+    }
+
+    private void checkLimit(List<String> errors, String resource, Integer limit, long used, long needed) {
+        if (limit == null || used + needed <= limit) {
+            return;
+        }
+        errors.add(String.format("Project limit of %d %s would be exceeded: %d in use and %d more needed. Ask hetzner for a limit increase or reduce the node pools",
+                limit, resource, used, needed));
+    }
+
+    /**
+     * Pools which get created by this tool, autoscaled pools are created by the cluster autoscaler later
+     */
+    private List<NodePool> pools() {
+        List<NodePool> pools = new ArrayList<>();
+        pools.add(settings.getMastersPool());
+        if (settings.getWorkerNodePools() != null) {
+            Arrays.stream(settings.getWorkerNodePools())
+                    .filter(nodePool -> !(nodePool.getAutoScaling() != null && nodePool.getAutoScaling().isEnabled()))
+                    .forEach(pools::add);
+        }
+        return pools;
+    }
+
+    // Same names as CreateCluster gives the servers, to know which of them exist already
+    private List<String> serverNames(NodePool nodePool) {
+        String clusterName = settings.getClusterName();
+        List<String> names = new ArrayList<>();
+        for (int index = 0; index < nodePool.getInstanceCount(); index++) {
+            if (nodePool == settings.getMastersPool()) {
+                names.add(String.format("%s-%s-master%s", clusterName, nodePool.getInstanceType(), index + 1));
+            } else {
+                names.add(String.format("%s-%s-pool-%s-worker%s", clusterName, nodePool.getInstanceType(), nodePool.getName(), index + 1));
+            }
+        }
+        return names;
+    }
+
+    private boolean isAvailable(Map<String, Set<Long>> availableServerTypesByLocation, String instanceType, String location) {
+        ServerType serverType = serverTypes.get(instanceType);
+        Set<Long> available = availableServerTypesByLocation.get(location);
+        return serverType == null || available == null || available.contains(serverType.getId());
+    }
+
+    private String availableFallback(Map<String, Set<Long>> availableServerTypesByLocation, NodePool nodePool) {
+        for (String instanceType : nodePool.getInstanceTypeCandidates()) {
+            for (String location : nodePool.getLocationCandidates()) {
+                if (isAvailable(availableServerTypesByLocation, instanceType, location)) {
+                    return instanceType + "/" + location;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, Set<Long>> availableServerTypesByLocation(List<JsonNode> datacenters) {
+        Map<String, Set<Long>> available = new HashMap<>();
+        for (JsonNode datacenter : datacenters) {
+            Set<Long> serverTypeIds = available.computeIfAbsent(datacenter.path("location").path("name").asText(), location -> new HashSet<>());
+            for (JsonNode serverTypeId : datacenter.path("server_types").path("available")) {
+                serverTypeIds.add(serverTypeId.asLong());
+            }
+        }
+        return available;
+    }
+
+    private static long cores(ServerType serverType) {
+        return serverType.getCores() == null ? 0 : serverType.getCores();
+    }
+}
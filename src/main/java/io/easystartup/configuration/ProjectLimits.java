@@ -0,0 +1,50 @@
+package io.easystartup.configuration;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/*
+ * @author indianBond
+ *
+ * Hetzner doesn't expose the project limits over the api, so they can be mentioned here (as seen in the console under
+ * Project -> Limits) to be checked before creating any server. Limits which are not mentioned are not checked.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ProjectLimits {
+
+    public ProjectLimits() {
+    }
+
+    @JsonProperty("servers")
+    private Integer servers;
+
+    @JsonProperty("cores")
+    private Integer cores;
+
+    @JsonProperty("primary_ips")
+    private Integer primaryIps;
+
+    public Integer getServers() {
+        return servers;
+    }
+
+    public void setServers(Integer servers) {
+        this.servers = servers;
+    }
+
+    public Integer getCores() {
+        return cores;
+    }
+
+    public void setCores(Integer cores) {
+        this.cores = cores;
+    }
+
+    public Integer getPrimaryIps() {
+        return primaryIps;
+    }
+
+    public void setPrimaryIps(Integer primaryIps) {
+        this.primaryIps = primaryIps;
+    }
+}
@@ -0,0 +1,260 @@
+package io.easystartup.kubernetes;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.easystartup.kubernetes.client.KubernetesClient;
+import io.easystartup.utils.ConsoleColors;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+import static io.easystartup.utils.Util.sleep;
+
+/*
+ * @author indianBond
+ *
+ * Installs the cluster addons. Each addon lists the addons it needs, it is applied (server side apply) as soon as those
+ * are rolled out, and then its own deployments, daemonsets and statefulsets are waited on. Addons which don't depend on
+ * each other go at the same time, so the whole takes as long as the slowest chain instead of the sum of all.
+ *
+ * The hash of every applied manifest is kept in a config map in the cluster, on a re-run an addon whose manifest didn't
+ * change only has its other objects (secrets, config maps, rbac ...) applied again, so they are put back if they were
+ * deleted or edited by hand, and its workloads just when they are gone; then its rollout is checked.
+ */
+public class AddonPipeline {
+
+    private static final Duration ROLLOUT_TIMEOUT = Duration.ofMinutes(5);
+    private static final long ROLLOUT_POLL_MILLIS = 2_000;
+    private static final Set<String> WORKLOAD_KINDS = Set.of("Deployment", "DaemonSet", "StatefulSet");
+    private static final String HASHES_NAMESPACE = "kube-system";
+    private static final String HASHES_CONFIG_MAP = "k3s-simplified-addons";
+    private static final String HASHES_PATH = "/api/v1/namespaces/" + HASHES_NAMESPACE + "/configmaps/" + HASHES_CONFIG_MAP;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final KubernetesClient kubernetesClient;
+    private final Map<String, Addon> addons = new LinkedHashMap<>();
+    private final Map<String, String> appliedHashes = new HashMap<>();
+
+    public AddonPipeline(KubernetesClient kubernetesClient) {
+        this.kubernetesClient = kubernetesClient;
+    }
+
+    /**
+     * The manifest is rendered (or downloaded) on the addon's own thread once its dependencies are rolled out
+     */
+    public AddonPipeline add(String name, List<String> dependsOn, Supplier<String> manifest) {
+        for (String dependency : dependsOn) {
+            if (!addons.containsKey(dependency)) {
+                throw new IllegalArgumentException("Addon " + name + " depends on " + dependency + " which has to be added before it");
+            }
+        }
+        addons.put(name, new Addon(name, dependsOn, manifest));
+        return this;
+    }
+
+    /**
+     * Throws once everything that could be installed is, if an addon failed to apply. An addon which doesn't finish
+     * rolling out in time is only reported, as the apply itself went through.
+     */
+    public void run() {
+        loadAppliedHashes();
+        Map<String, CompletableFuture<Void>> done = new HashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Addon addon : addons.values()) {
+                CompletableFuture<?>[] dependencies = addon.dependsOn.stream().map(done::get).toArray(CompletableFuture[]::new);
+                done.put(addon.name, CompletableFuture.allOf(dependencies)
+                        .exceptionally(throwable -> {
+                            throw new SkippedException();
+                        })
+                        .thenRunAsync(() -> install(addon), executor));
+            }
+            CompletableFuture.allOf(done.values().toArray(new CompletableFuture[0])).exceptionally(throwable -> null).join();
+        }
+
+        List<String> failed = new ArrayList<>();
+        for (Addon addon : addons.values()) {
+            try {
+                done.get(addon.name).join();
+            } catch (CompletionException e) {
+                Throwable cause = rootCause(e);
+                if (cause instanceof SkippedException) {
+                    System.out.println(ConsoleColors.RED + "Skipped " + addon.name + ", an addon it depends on failed" + ConsoleColors.RESET);
+                } else {
+                    System.out.println(ConsoleColors.RED + "Failed to deploy " + addon.name + ": " + cause.getMessage() + ConsoleColors.RESET);
+                }
+                failed.add(addon.name);
+            }
+        }
+        if (!failed.isEmpty()) {
+            throw new RuntimeException("Failed to deploy " + String.join(", ", failed));
+        }
+    }
+
+    private void install(Addon addon) {
+        long tic = System.currentTimeMillis();
+        String manifest = addon.manifest.get();
+        String hash = sha256(manifest);
+        List<JsonNode> objects = KubernetesClient.parseManifest(manifest);
+
+        if (hash.equals(appliedHashes.get(hashKey(addon.name)))) {
+            repair(objects);
+            System.out.println(addon.name + " unchanged, checking its rollout");
+        } else {
+            System.out.println("Deploying " + addon.name + "...");
+            for (JsonNode object : objects) {
+                kubernetesClient.apply(object);
+            }
+            saveAppliedHash(addon.name, hash);
+            System.out.println("..." + addon.name + " applied, waiting for it to roll out");
+        }
+
+        List<String> pending = waitForRollout(objects);
+        long seconds = (System.currentTimeMillis() - tic) / 1000;
+        if (pending.isEmpty()) {
+            System.out.println("..." + addon.name + " is ready (" + seconds + "s)");
+        } else {
+            System.out.println(ConsoleColors.YELLOW + "..." + addon.name + " not rolled out after " + seconds + "s, still waiting on " + String.join(", ", pending) + ConsoleColors.RESET);
+        }
+    }
+
+    /**
+     * Not being able to read or keep the hashes isn't fatal, addons are then applied every time
+     */
+    private void loadAppliedHashes() {
+        try {
+            JsonNode configMap = kubernetesClient.getOrNull(HASHES_PATH);
+            if (configMap == null) {
+                ObjectNode newConfigMap = OBJECT_MAPPER.createObjectNode();
+                newConfigMap.put("apiVersion", "v1");
+                newConfigMap.put("kind", "ConfigMap");
+                newConfigMap.putObject("metadata").put("name", HASHES_CONFIG_MAP).put("namespace", HASHES_NAMESPACE);
+                kubernetesClient.apply(newConfigMap);
+                return;
+            }
+            configMap.path("data").fields().forEachRemaining(entry -> appliedHashes.put(entry.getKey(), entry.getValue().asText()));
+        } catch (RuntimeException e) {
+            System.out.println(ConsoleColors.YELLOW + "Unable to read the hashes of applied addons: " + e.getMessage() + ConsoleColors.RESET);
+        }
+    }
+
+    /**
+     * Each addon only merges its own key, so addons finishing at the same time don't overwrite each other
+     */
+    private void saveAppliedHash(String addonName, String hash) {
+        ObjectNode patch = OBJECT_MAPPER.createObjectNode();
+        patch.putObject("data").put(hashKey(addonName), hash);
+        try {
+            kubernetesClient.mergePatch(HASHES_PATH, patch);
+        } catch (RuntimeException e) {
+            System.out.println(ConsoleColors.YELLOW + "Unable to save the hash of " + addonName + ": " + e.getMessage() + ConsoleColors.RESET);
+        }
+    }
+
+    /**
+     * Config map keys only allow alphanumerics, '-', '_' and '.'
+     */
+    private static String hashKey(String addonName) {
+        return addonName.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9._]+", "-");
+    }
+
+    /**
+     * Applying an unchanged object is a no-op, so everything but the workloads is simply applied again. Workloads are
+     * only applied when they were deleted, re-applying one which is there could undo scaling done since.
+     */
+    private void repair(List<JsonNode> objects) {
+        for (JsonNode object : objects) {
+            if (!WORKLOAD_KINDS.contains(object.path("kind").asText()) || kubernetesClient.getOrNull(kubernetesClient.objectPath(object)) == null) {
+                kubernetesClient.apply(object);
+            }
+        }
+    }
+
+    /**
+     * Returns the workloads which weren't ready in time
+     */
+    private List<String> waitForRollout(List<JsonNode> applied) {
+        Map<String, String> workloads = new LinkedHashMap<>();
+        for (JsonNode object : applied) {
+            String kind = object.path("kind").asText();
+            if (WORKLOAD_KINDS.contains(kind)) {
+                workloads.put(kubernetesClient.objectPath(object), kind + "/" + object.path("metadata").path("name").asText());
+            }
+        }
+        long deadline = System.currentTimeMillis() + ROLLOUT_TIMEOUT.toMillis();
+        while (!workloads.isEmpty() && System.currentTimeMillis() < deadline) {
+            workloads.keySet().removeIf(this::isRolledOut);
+            if (!workloads.isEmpty()) {
+                sleep(ROLLOUT_POLL_MILLIS);
+            }
+        }
+        return new ArrayList<>(workloads.values());
+    }
+
+    /**
+     * Same checks as `kubectl rollout status`
+     */
+    private boolean isRolledOut(String path) {
+        JsonNode object;
+        try {
+            object = kubernetesClient.get(path);
+        } catch (RuntimeException e) {
+            return false;
+        }
+        JsonNode status = object.path("status");
+        if (status.path("observedGeneration").asLong() < object.path("metadata").path("generation").asLong()) {
+            return false;
+        }
+        switch (object.path("kind").asText()) {
+            case "Deployment", "StatefulSet" -> {
+                long replicas = object.path("spec").path("replicas").asLong(1);
+                return status.path("updatedReplicas").asLong() >= replicas
+                        && status.path("readyReplicas").asLong() >= replicas
+                        && status.path("replicas").asLong() <= replicas;
+            }
+            case "DaemonSet" -> {
+                long desired = status.path("desiredNumberScheduled").asLong();
+                return status.path("updatedNumberScheduled").asLong() >= desired
+                        && status.path("numberAvailable").asLong() >= desired;
+            }
+            default -> {
+                return true;
+            }
+        }
+    }
+
+    private static String sha256(String manifest) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(manifest.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Throwable rootCause(Throwable throwable) {
+        while ((throwable instanceof CompletionException || throwable instanceof ExecutionException) && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        return throwable;
+    }
+
+    private static class Addon {
+        private final String name;
+        private final List<String> dependsOn;
+        private final Supplier<String> manifest;
+
+        private Addon(String name, List<String> dependsOn, Supplier<String> manifest) {
+            this.name = name;
+            this.dependsOn = dependsOn;
+            this.manifest = manifest;
+        }
+    }
+
+    private static class SkippedException extends RuntimeException {
+    }
+}
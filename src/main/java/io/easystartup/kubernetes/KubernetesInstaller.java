@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.easystartup.cloud.hetzner.HetznerClient;
 import io.easystartup.cluster.CreateCluster;
+import io.easystartup.cluster.state.ClusterStateCache;
 import io.easystartup.configuration.AutoScaling;
 import io.easystartup.configuration.KeyValuePair;
 import io.easystartup.configuration.MainSettings;
@@ -11,6 +12,7 @@ import io.easystartup.configuration.NodePool;
 import io.easystartup.kubernetes.autoscaling.AutoScalingImagesForArch;
 import io.easystartup.kubernetes.autoscaling.AutoscalingClusterConfig;
 import io.easystartup.kubernetes.autoscaling.NodeAutoscalingConfig;
+import io.easystartup.kubernetes.client.KubernetesClient;
 import io.easystartup.utils.*;
 import me.tomsdevsn.hetznercloud.objects.general.*;
 import org.apache.commons.collections4.CollectionUtils;
@@ -28,9 +30,9 @@ import java.nio.file.Paths;
 import java.nio.file.attribute.PosixFilePermission;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.security.SecureRandom;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static io.easystartup.cloud.hetzner.HetznerClient.cloudInit;
@@ -43,8 +45,22 @@ import static org.apache.commons.lang3.StringUtils.isNotBlank;
  * @author indianBond
  */
 public class KubernetesInstaller {
+    private static final int INSTALL_OUTPUT_TAIL_LINES = 200;
+    private static final int WORKER_INSTALL_CONCURRENCY = 50;
+    private static final Duration NODES_READY_TIMEOUT = Duration.ofMinutes(5);
+    private static final String HCLOUD_SECRET_ADDON = "Hetzner Cloud secret";
+    private static final String CCM_ADDON = "Hetzner Cloud Controller Manager";
+    private static final String CSI_DRIVER_ADDON = "Hetzner CSI Driver";
+    private static final String SYSTEM_UPGRADE_CONTROLLER_ADDON = "k3s System Upgrade Controller";
+    private static final String CLUSTER_AUTOSCALER_ADDON = "Cluster Autoscaler";
+    private static final SSH.Timeouts WORKER_INSTALL_TIMEOUTS = new SSH.Timeouts(Duration.ofSeconds(30), Duration.ofSeconds(30), Duration.ofMinutes(15));
+    private static final String KUBECONFIG_COMMAND = "cat /etc/rancher/k3s/k3s.yaml";
+    private static final String NODE_TOKEN_COMMAND = "cat /var/lib/rancher/k3s/server/node-token";
+    private static final String CERTIFICATE_PATH_COMMAND = "[ -f /etc/ssl/certs/ca-certificates.crt ] && echo 1 || echo 2";
+
     private final MainSettings mainSettings;
     private final HetznerClient hetznerClient;
+    private final ClusterStateCache stateCache;
     private final LoadBalancer loadBalancer;
     private final Map<CreateCluster.ServerType, List<Server>> servers;
 
@@ -56,73 +72,132 @@ public class KubernetesInstaller {
 
     private final boolean debug;
 
-    public KubernetesInstaller(MainSettings mainSettings, HetznerClient hetznerClient, LoadBalancer loadBalancer, Map<CreateCluster.ServerType, List<Server>> servers, Network network, Firewall firewall, SSHKey sshKey) {
+    private volatile String k3sToken;
+    private volatile String certificatePath;
+
+    public KubernetesInstaller(MainSettings mainSettings, HetznerClient hetznerClient, ClusterStateCache stateCache, LoadBalancer loadBalancer, Map<CreateCluster.ServerType, List<Server>> servers, Network network, Firewall firewall, SSHKey sshKey) {
         this.mainSettings = mainSettings;
         this.debug = mainSettings.isDebug();
         this.hetznerClient = hetznerClient;
+        this.stateCache = stateCache;
         this.loadBalancer = loadBalancer;
         this.servers = servers;
         this.network = network;
         this.firewall = firewall;
         this.sshKey = sshKey;
 
-        this.ssh = new SSH(mainSettings.getPrivateSSHKeyPath(), mainSettings.getPublicSSHKeyPath());
+        this.ssh = new SSH(mainSettings.getPrivateSSHKeyPath(), mainSettings.getPublicSSHKeyPath(), mainSettings.getJumpHost());
     }
 
 
     public void startInstallation() {
         System.out.println(ConsoleColors.BLUE_BOLD + "\n=== Setting up Kubernetes ===\n" + ConsoleColors.RESET);
 
-        Util.checkKubectl();
         List<Server> serverList = servers.get(CreateCluster.ServerType.MASTER);
-        setUpFirstMaster(serverList.get(0));
-
-        waitForControlPlaneFirstNodeToBeReady(serverList.get(0));
+        List<Server> workers = servers.get(CreateCluster.ServerType.WORKER);
+        try (NodeReadinessTracker nodeReadiness = new NodeReadinessTracker(this::kubernetesClient)) {
+            nodeReadiness.expect(List.of(serverList.get(0).getName()));
+            setUpFirstMaster(serverList.get(0));
+            nodeReadiness.start();
 
-        setUpOtherMasters(serverList);
+            waitForControlPlaneFirstNodeToBeReady(serverList.get(0), nodeReadiness);
 
-        String k3sToken = getK3sTokenByFallingBackToDifferentMasters().getLeft();
+            nodeReadiness.expect(serverList.stream().map(Server::getName).toList());
+            setUpOtherMasters(serverList);
 
-        setUpWorkers(servers.get(CreateCluster.ServerType.WORKER), k3sToken);
+            String k3sToken = getK3sToken();
 
-        System.out.println("\n=== Deploying Hetzner drivers ===\n");
+            nodeReadiness.expect(workers.stream().map(Server::getName).toList());
+            Set<String> failedWorkers = setUpWorkers(workers, k3sToken);
 
+            List<String> joined = new ArrayList<>();
+            for (Server server : serverList) {
+                joined.add(server.getName());
+            }
+            for (Server worker : workers) {
+                if (!failedWorkers.contains(worker.getName())) {
+                    joined.add(worker.getName());
+                }
+            }
+            waitForNodesToBeReady(joined, nodeReadiness);
+            addLabelsAndTaints();
 
-        addLabelsAndTaintsToMasters();
-        addLabelsAndTaintsToWorkers();
+            System.out.println("\n=== Deploying Hetzner drivers ===\n");
 
-        createHetznerCloudSecret();
-        deployCloudControllerManager();
-        deployCsiDriver();
-        deploySystemUpgradeController();
-        deployClusterAutoscaler(k3sToken);
+            deployAddons(k3sToken);
+        }
     }
 
-    private void waitForControlPlaneFirstNodeToBeReady(Server server) {
-        System.out.println("Validating that kubectl is working and able to query for nodes");
-        long tic = System.currentTimeMillis();
-        while (true) {
-            String command = "kubectl get nodes";
-            ShellUtil.ShellResult result = ShellUtil.run(command, mainSettings.getKubeconfigPath(), mainSettings.getHetznerToken());
-            if (result.isSuccess() && result.getOutput().contains(server.getName())) {
-                break;
+    /**
+     * Only reported, never fatal. With flannel disabled no node turns Ready until a CNI is installed after create, so
+     * then only their registration is waited on (labels and taints need the node objects).
+     */
+    private void waitForNodesToBeReady(List<String> nodeNames, NodeReadinessTracker nodeReadiness) {
+        if (mainSettings.getDisableFlannel()) {
+            System.out.println("\nWaiting for all nodes to register (flannel is disabled, they turn Ready once a CNI is installed)...");
+            List<String> notRegistered = nodeReadiness.awaitRegistered(nodeNames, NODES_READY_TIMEOUT);
+            if (notRegistered.isEmpty()) {
+                System.out.println("...all " + nodeNames.size() + " nodes are registered.");
+            } else {
+                System.out.println(ConsoleColors.YELLOW + "Nodes not registered after " + NODES_READY_TIMEOUT.toMinutes() + " minutes: " + String.join(", ", notRegistered) + ConsoleColors.RESET);
             }
-            Util.sleep(2_000L);
-            long tac = System.currentTimeMillis();
-            if ((tac - tic) > TimeUnit.MINUTES.toMillis(4)) {
-                System.out.println("Its taking too long to connect, please check that your control plane is  accessible from here and please try again");
-                if (StringUtils.isNotBlank(mainSettings.getAPIServerHostname())) {
-                    System.out.println("Also ensure that your DNS is pointed properly for " + mainSettings.getAPIServerHostname());
-                }
-                System.exit(1);
+            return;
+        }
+        System.out.println("\nWaiting for all nodes to be Ready...");
+        List<String> notReady = nodeReadiness.awaitReady(nodeNames, NODES_READY_TIMEOUT);
+        if (notReady.isEmpty()) {
+            System.out.println("...all " + nodeNames.size() + " nodes are Ready.");
+        } else {
+            System.out.println(ConsoleColors.YELLOW + "Nodes not Ready after " + NODES_READY_TIMEOUT.toMinutes() + " minutes: " + String.join(", ", notReady) + ConsoleColors.RESET);
+        }
+    }
+
+    /**
+     * The CCM and CSI driver need the hcloud secret, the autoscaler needs the nodes initialized by the CCM
+     */
+    private void deployAddons(String k3sToken) {
+        AddonPipeline pipeline = new AddonPipeline(kubernetesClient())
+                .add(HCLOUD_SECRET_ADDON, List.of(), this::hetznerCloudSecretManifest)
+                .add(CCM_ADDON, List.of(HCLOUD_SECRET_ADDON), this::cloudControllerManagerManifest)
+                .add(CSI_DRIVER_ADDON, List.of(HCLOUD_SECRET_ADDON), () -> KubernetesClient.download(mainSettings.getCSIDriverManifestURL()))
+                .add(SYSTEM_UPGRADE_CONTROLLER_ADDON, List.of(), () -> KubernetesClient.download(mainSettings.getSystemUpgradeControllerManifestURL()));
+
+        Set<NodePool> autoScalingWorkerNodePools = autoScalingWorkerNodePools();
+        if (!autoScalingWorkerNodePools.isEmpty()) {
+            Server firstMaster = servers.get(CreateCluster.ServerType.MASTER).get(0);
+            pipeline.add(CLUSTER_AUTOSCALER_ADDON, List.of(CCM_ADDON), () -> clusterAutoscalerManifest(k3sToken, autoScalingWorkerNodePools, firstMaster));
+        }
+        pipeline.run();
+    }
+
+    /**
+     * The other nodes only need the api server to be up, so the first master is only waited on until it is registered
+     */
+    private void waitForControlPlaneFirstNodeToBeReady(Server server, NodeReadinessTracker nodeReadiness) {
+        System.out.println("Validating that the Kubernetes API is reachable and the first master is registered");
+        if (!nodeReadiness.awaitRegistered(List.of(server.getName()), Duration.ofMinutes(4)).isEmpty()) {
+            System.out.println("Its taking too long to connect, please check that your control plane is  accessible from here and please try again");
+            if (StringUtils.isNotBlank(mainSettings.getAPIServerHostname())) {
+                System.out.println("Also ensure that your DNS is pointed properly for " + mainSettings.getAPIServerHostname());
             }
+            System.exit(1);
         }
     }
 
+    private KubernetesClient kubernetesClient() {
+        return KubernetesClient.forKubeconfig(mainSettings.getKubeconfigPath());
+    }
+
     private void setUpFirstMaster(Server firstMaster) {
 
         System.out.println("Checking if k3s already setup");
-        Triple<String, Server, Integer> tokenVsServerVsServerIndex = getK3sTokenByFallingBackToDifferentMasters();
+        Triple<String, Server, Integer> tokenVsServerVsServerIndex;
+        if (stateCache.getK3sToken() != null) {
+            // Cached state is only valid when none of the servers changed, so the first master is still the one with the token
+            tokenVsServerVsServerIndex = Triple.of(stateCache.getK3sToken(), firstMaster, 0);
+        } else {
+            tokenVsServerVsServerIndex = getK3sTokenByFallingBackToDifferentMasters();
+        }
         if (tokenVsServerVsServerIndex.getMiddle() != null) {
             System.out.println("Found existing master server with token " + tokenVsServerVsServerIndex.getRight());
         } else {
@@ -142,25 +217,57 @@ public class KubernetesInstaller {
 
         String command = masterInstallScript(firstMaster, clusterDoingInit, k3sTokenByFallingBackToDifferentMasters);
         printDebug(command);
-        String output = ssh.ssh(firstMaster, mainSettings.getSshPort(), command, mainSettings.isUseSSHAgent(), false);
+        runInstallScript(firstMaster, command);
 
-        System.out.println(output);
         System.out.println("Waiting for the control plane to be ready...");
 
-        sleep(10_000); // Sleep for 10 seconds
-
-        saveKubeconfig(firstMaster);
+        collectFromFirstMaster(firstMaster);
 
         System.out.println("...k3s has been deployed to first master " + firstMaster.getName() + " and the control plane is up.");
     }
 
-    public void saveKubeconfig(Server firstMaster) {
-        // Command to get the kubeconfig content from the master server
-        String command = "cat /etc/rancher/k3s/k3s.yaml";
+    /**
+     * Kubeconfig, token and certificate path are all read from the first master in a single ssh round trip
+     */
+    private void collectFromFirstMaster(Server firstMaster) {
+        Map<String, String> commands = new LinkedHashMap<>();
+        commands.put("kubeconfig", KUBECONFIG_COMMAND);
+        commands.put("token", NODE_TOKEN_COMMAND);
+        if (stateCache.getCertificatePath() == null) {
+            commands.put("certificate_path", CERTIFICATE_PATH_COMMAND);
+        }
+        // k3s writes the kubeconfig and token while starting up, until then they are retried instead of waiting a fixed time
+        Map<String, SSH.CommandResult> results = ssh.sshBatch(firstMaster, mainSettings.getSshPort(), commands, mainSettings.isUseSSHAgent(), false);
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(2);
+        while (!isCollected(results) && System.currentTimeMillis() < deadline) {
+            sleep(1_000);
+            results = ssh.sshBatch(firstMaster, mainSettings.getSshPort(), commands, mainSettings.isUseSSHAgent(), false);
+        }
+
+        writeKubeconfig(results.get("kubeconfig").getOutput());
+        String token = results.get("token").getOutput();
+        if (k3sToken == null && StringUtils.isNotBlank(token)) {
+            k3sToken = token;
+            stateCache.saveK3sToken(token);
+        }
+        if (results.containsKey("certificate_path")) {
+            certificatePath = certificatePath(results.get("certificate_path").getOutput());
+            stateCache.saveCertificatePath(certificatePath);
+        }
+    }
+
+    private static boolean isCollected(Map<String, SSH.CommandResult> results) {
+        SSH.CommandResult kubeconfig = results.get("kubeconfig");
+        SSH.CommandResult token = results.get("token");
+        return kubeconfig.isSuccess() && isNotBlank(kubeconfig.getOutput()) && token.isSuccess() && isNotBlank(token.getOutput());
+    }
 
+    public void saveKubeconfig(Server firstMaster) {
         // Execute the command via SSH and store the output (kubeconfig content)
-        String kubeconfigContent = ssh.ssh(firstMaster, mainSettings.getSshPort(), command, mainSettings.isUseSSHAgent(), false);
+        writeKubeconfig(ssh.ssh(firstMaster, mainSettings.getSshPort(), KUBECONFIG_COMMAND, mainSettings.isUseSSHAgent(), false));
+    }
 
+    private void writeKubeconfig(String kubeconfigContent) {
         String apiServerHostname = isNotBlank(mainSettings.getAPIServerHostname()) ? mainSettings.getAPIServerHostname() : getApiServerIpAddress();
         // Replace the server address placeholder with the actual API server address
         kubeconfigContent = kubeconfigContent.replace("127.0.0.1", apiServerHostname);
@@ -179,6 +286,8 @@ public class KubernetesInstaller {
         // Set file permissions (optional, based on your security requirements)
         setFilePermissions(kubeconfigPath, "rw-------");
 
+        // The api client of an older kubeconfig at this path would talk to the wrong cluster
+        KubernetesClient.reset(kubeconfigPath);
         System.out.println("Kubeconfig saved to " + kubeconfigPath);
     }
 
@@ -200,7 +309,7 @@ public class KubernetesInstaller {
         }
         ExecutorService executor = Executors.newFixedThreadPool(masters.size() - 1);
         List<Future<?>> futures = new ArrayList<>();
-        String k3sTokenByFallingBackToDifferentMasters = getK3sTokenByFallingBackToDifferentMasters().getLeft();
+        String k3sTokenByFallingBackToDifferentMasters = getK3sToken();
         for (Server master : masters.subList(1, masters.size())) {
             futures.add(executor.submit(() -> deployK3sToOtherMasters(master, k3sTokenByFallingBackToDifferentMasters)));
         }
@@ -217,140 +326,83 @@ public class KubernetesInstaller {
         executor.shutdown();
     }
 
-    private void setUpWorkers(List<Server> workers, String k3sToken) {
+    /**
+     * Returns the names of the workers k3s couldn't be deployed to
+     */
+    private Set<String> setUpWorkers(List<Server> workers, String k3sToken) {
         if (CollectionUtils.isEmpty(workers)){
-            return;
-        }
-        ExecutorService executor = Executors.newFixedThreadPool(workers.size());
-        List<Future<?>> futures = new ArrayList<>();
-
-        for (Server worker : workers) {
-            futures.add(executor.submit(() -> deployK3sToWorker(worker, k3sToken)));
-        }
-
-        // Wait for all tasks to complete
-        for (Future<?> future : futures) {
-            try {
-                future.get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
+            return Set.of();
+        }
+        // A worker which hangs only holds its own slot until the deadline, the others carry on
+        Map<String, HostResult> results = SSH.fanOut(workers, WORKER_INSTALL_CONCURRENCY, worker -> deployK3sToWorker(worker, k3sToken));
+        List<HostResult> failed = results.values().stream().filter(result -> !result.isSuccess()).toList();
+        if (!failed.isEmpty()) {
+            System.out.println(ConsoleColors.RED + "k3s could not be deployed to " + failed.size() + " of " + workers.size() + " workers:" + ConsoleColors.RESET);
+            for (HostResult result : failed) {
+                System.out.println(ConsoleColors.RED + result + ConsoleColors.RESET);
+                if (!debug && StringUtils.isNotBlank(result.getOutput())) {
+                    System.out.println(result.getOutput());
+                }
             }
         }
-
-        executor.shutdown();
+        return failed.stream().map(HostResult::getServerName).collect(Collectors.toSet());
     }
 
     private void deployK3sToOtherMasters(Server master, String k3sTokenByFallingBackToDifferentMasters) {
         System.out.println("Deploying k3s to master " + master.getName() + "...");
         String command = masterInstallScript(master, false, k3sTokenByFallingBackToDifferentMasters);
         printDebug(master.getName() + "\n" + command);
-        String ssh1 = ssh.ssh(master, mainSettings.getSshPort(), command, mainSettings.isUseSSHAgent(), false);
-        System.out.println(master.getName() + "\n" + ssh1);
+        runInstallScript(master, command);
         System.out.println("...k3s has been deployed to master " + master.getName() + ".");
     }
 
-    private void deployK3sToWorker(Server worker, String k3sToken) {
+    private HostResult deployK3sToWorker(Server worker, String k3sToken) {
         System.out.println("Deploying k3s to worker " + worker.getName() + "...");
-        ssh.ssh(worker, mainSettings.getSshPort(), workerInstallScript(k3sToken), mainSettings.isUseSSHAgent(), false);
-        System.out.println("...k3s has been deployed to worker " + worker.getName() + ".");
+        RemoteOutput output = new RemoteOutput(worker.getName(), INSTALL_OUTPUT_TAIL_LINES, debug);
+        HostResult result = ssh.executeScript(worker, mainSettings.getSshPort(), workerInstallScript(k3sToken), "install-k3s.sh",
+                mainSettings.isUseSSHAgent(), false, WORKER_INSTALL_TIMEOUTS, output);
+        if (result.isSuccess()) {
+            System.out.println("...k3s has been deployed to worker " + worker.getName() + ".");
+        }
+        return result;
     }
 
-    private void createHetznerCloudSecret() {
-        System.out.println("\nCreating secret for Hetzner Cloud token...");
+    /**
+     * The script is uploaded over sftp and run by path (not re-sent on a re-run when it didn't change). Its output is
+     * shown live while only its tail is kept in memory.
+     */
+    private void runInstallScript(Server server, String command) {
+        SSH.CommandResult result = ssh.sshScript(server, mainSettings.getSshPort(), command, "install-k3s.sh", mainSettings.isUseSSHAgent(), false, INSTALL_OUTPUT_TAIL_LINES, true);
+        if (!result.isSuccess()) {
+            System.out.println(ConsoleColors.RED + "Install script on " + server.getName() + " exited with " + result.getExitCode() + ConsoleColors.RESET);
+        }
+    }
 
+    private String hetznerCloudSecretManifest() {
         Map<String, Object> cloudSecretData = new HashMap<>();
         cloudSecretData.put("network", isNotBlank(mainSettings.getExistingNetworkName()) ? mainSettings.getExistingNetworkName() : mainSettings.getClusterName());
         cloudSecretData.put("token", mainSettings.getHetznerToken());
-        String secretManifest = TemplateUtil.renderTemplate(TemplateUtil.HETZNER_CLOUD_SECRET_MANIFEST, cloudSecretData);
-        String command = "kubectl apply -f - <<EOF\n" + secretManifest + "\nEOF";
-
-        ShellUtil.ShellResult result = ShellUtil.run(command, mainSettings.getKubeconfigPath(), mainSettings.getHetznerToken());
-
-        if (!result.isSuccess()) {
-            System.out.println("Failed to create Hetzner Cloud secret:");
-            System.out.println(result.getOutput());
-            System.out.println(result.getStatus());
-            throw new RuntimeException("Failed to create Hetzner Cloud secret");
-        }
-
-        System.out.println("...secret created.");
+        return TemplateUtil.renderTemplate(TemplateUtil.HETZNER_CLOUD_SECRET_MANIFEST, cloudSecretData);
     }
 
-    private void deployCloudControllerManager() {
-        System.out.println("\nDeploying Hetzner Cloud Controller Manager...");
-
+    private String cloudControllerManagerManifest() {
         try {
             String ccmManifest = downloadCCMManifest(mainSettings.getCloudControllerManagerManifestURL());
-            ccmManifest = ccmManifest.replaceAll("--cluster-cidr=[^\"]+", "--cluster-cidr=" + mainSettings.getClusterCIDR());
-
-            String ccmManifestPath = "/tmp/ccm_manifest.yaml";
-            Files.writeString(Paths.get(ccmManifestPath), ccmManifest);
-
-            String command = "kubectl apply -f " + ccmManifestPath;
-            ShellUtil.ShellResult result = ShellUtil.run(command, mainSettings.getKubeconfigPath(), mainSettings.getHetznerToken());
-
-            if (!result.isSuccess()) {
-                System.out.println("Failed to deploy Cloud Controller Manager:");
-                System.out.println(result);
-                throw new RuntimeException("Failed to deploy Cloud Controller Manager");
-            }
+            return ccmManifest.replaceAll("--cluster-cidr=[^\"]+", "--cluster-cidr=" + mainSettings.getClusterCIDR());
         } catch (IOException e) {
-            throw new RuntimeException("Error in deploying Cloud Controller Manager", e);
-        }
-
-        System.out.println("...Cloud Controller Manager deployed");
-    }
-
-    private void deployCsiDriver() {
-        System.out.println("\nDeploying Hetzner CSI Driver...");
-
-        String command = "kubectl apply -f " + mainSettings.getCSIDriverManifestURL();
-        ShellUtil.ShellResult result = ShellUtil.run(command, mainSettings.getKubeconfigPath(), mainSettings.getHetznerToken());
-
-        if (!result.isSuccess()) {
-            System.out.println("Failed to deploy CSI Driver:");
-            System.out.println(result);
-            throw new RuntimeException("Failed to deploy CSI Driver");
+            throw new RuntimeException("Error in downloading Cloud Controller Manager manifest", e);
         }
-
-        System.out.println("...CSI Driver deployed");
     }
 
-    private void deploySystemUpgradeController() {
-        System.out.println("\nDeploying k3s System Upgrade Controller...");
-
-        String command = "kubectl apply -f " + mainSettings.getSystemUpgradeControllerManifestURL();
-        ShellUtil.ShellResult result = ShellUtil.run(command, mainSettings.getKubeconfigPath(), mainSettings.getHetznerToken());
-
-        if (!result.isSuccess()) {
-            System.out.println("Failed to deploy k3s System Upgrade Controller:");
-            System.out.println(result);
-            throw new RuntimeException("Failed to deploy k3s System Upgrade Controller");
-        }
-
-        System.out.println("...k3s System Upgrade Controller deployed.");
-    }
-
-    private void deployClusterAutoscaler(String k3sToken) {
-        List<Server> serverList = servers.get(CreateCluster.ServerType.MASTER);
-        Server firstMaster = serverList.get(0);
-
+    private Set<NodePool> autoScalingWorkerNodePools() {
         NodePool[] workerNodePools = mainSettings.getWorkerNodePools();
         if (workerNodePools == null || workerNodePools.length == 0) {
-            return;
-        }
-        Set<NodePool> autoScalingWorkerNodePools = Arrays.stream(workerNodePools).filter(val -> val.getAutoScaling() != null && val.getAutoScaling().isEnabled()).collect(Collectors.toSet());
-
-        if (CollectionUtils.isEmpty(autoScalingWorkerNodePools)) {
-            return;
+            return Set.of();
         }
-
-        System.out.println("\nDeploying Cluster Autoscaler...");
-        deployClusterAutoscaler(k3sToken, autoScalingWorkerNodePools, firstMaster);
-        System.out.println("\nFinished deploying Cluster Autoscaler...");
+        return Arrays.stream(workerNodePools).filter(val -> val.getAutoScaling() != null && val.getAutoScaling().isEnabled()).collect(Collectors.toSet());
     }
 
-    private void deployClusterAutoscaler(String k3sToken, Set<NodePool> autoScalingWorkerNodePools, Server firstMaster) {
+    private String clusterAutoscalerManifest(String k3sToken, Set<NodePool> autoScalingWorkerNodePools, Server firstMaster) {
         String nodePoolArgs = autoScalingWorkerNodePools.stream()
                 .map(pool -> {
                     AutoScaling autoScaling = pool.getAutoScaling();
@@ -407,21 +459,7 @@ public class KubernetesInstaller {
             clusterAutoscalerManifest = TemplateUtil.renderTemplate(TemplateUtil.CLUSTER_AUTOSCALER_MANIFEST, dataModel);
         }
 
-        String clusterAutoscalerManifestPath = "/tmp/cluster_autoscaler_manifest.yaml";
-        try {
-            Files.writeString(Paths.get(clusterAutoscalerManifestPath), clusterAutoscalerManifest);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
-        String command = "kubectl apply -f " + clusterAutoscalerManifestPath;
-        ShellUtil.ShellResult result = ShellUtil.run(command, mainSettings.getKubeconfigPath(), mainSettings.getHetznerToken());
-
-        if (!result.isSuccess()) {
-            System.out.println("Failed to deploy Cluster Autoscaler:");
-            System.out.println(result.getOutput());
-            System.exit(1);
-        }
+        return clusterAutoscalerManifest;
     }
 
     private AutoscalingClusterConfig createAutoscalingClusterConfig(Set<NodePool> autoScalingWorkerNodePools, String k3sJoinScript) {
@@ -534,9 +572,24 @@ public class KubernetesInstaller {
     }
 
     private String checkCertificatePath(Server firstMaster) {
-        String checkCommand = "[ -f /etc/ssl/certs/ca-certificates.crt ] && echo 1 || echo 2";
-        String result = ssh.ssh(firstMaster, mainSettings.getSshPort(), checkCommand, mainSettings.isUseSSHAgent(), false);
+        if (certificatePath != null) {
+            return certificatePath;
+        }
+        String cachedCertificatePath = stateCache.getCertificatePath();
+        if (cachedCertificatePath != null) {
+            return cachedCertificatePath;
+        }
+        certificatePath = findCertificatePath(firstMaster);
+        stateCache.saveCertificatePath(certificatePath);
+        return certificatePath;
+    }
 
+    private String findCertificatePath(Server firstMaster) {
+        String result = ssh.ssh(firstMaster, mainSettings.getSshPort(), CERTIFICATE_PATH_COMMAND, mainSettings.isUseSSHAgent(), false);
+        return certificatePath(result);
+    }
+
+    private static String certificatePath(String result) {
         if ("1".equals(result.trim())) {
             return "/etc/ssl/certs/ca-certificates.crt";
         } else {
@@ -544,87 +597,38 @@ public class KubernetesInstaller {
         }
     }
 
-    public void addLabelsAndTaintsToMasters() {
-        List<Server> masters = servers.get(CreateCluster.ServerType.MASTER);
-        KeyValuePair[] labels = mainSettings.getMastersPool().getLabels();
-        KeyValuePair[] taints = mainSettings.getMastersPool().getTaints();
-
-        String nodeNames = masters.stream().map(Server::getName).collect(Collectors.joining(" "));
-        applyLabels(nodeNames, labels);
-        applyTaints(nodeNames, taints);
-    }
-
-    private void applyLabels(String nodeNames, KeyValuePair[] labels) {
-        if (labels == null || labels.length == 0) {
-            return;
-        }
-        String labelString = Arrays.stream(labels)
-                .map(label -> label.getKey() + "=" + label.getValue())
-                .collect(Collectors.joining(" "));
-        if (!labelString.isEmpty()) {
-            System.out.println("Adding label to " + nodeNames);
-            String command = "kubectl label --overwrite nodes " + nodeNames + " " + labelString;
-            ShellUtil.run(command, mainSettings.getKubeconfigPath(), mainSettings.getHetznerToken());
+    private void addLabelsAndTaints() {
+        System.out.println("\nAdding labels and taints to nodes...");
+        try {
+            new NodeLabelReconciler(kubernetesClient()).reconcile(desiredLabelsAndTaints());
+        } catch (RuntimeException e) {
+            System.out.println(ConsoleColors.YELLOW + "Failed to add labels or taints: " + e.getMessage() + ConsoleColors.RESET);
         }
+        System.out.println("...done.");
     }
 
-    private void applyTaints(String nodeNames, KeyValuePair[] taints) {
-        if (taints == null || taints.length == 0) {
-            return;
-        }
-        String taintString = Arrays.stream(taints)
-                .map(taint -> taint.getKey() + "=" + taint.getValue())
-                .collect(Collectors.joining(" "));
-        if (StringUtils.isNotBlank(taintString)) {
-            System.out.println("Adding taint to " + nodeNames);
-            String command = "kubectl taint --overwrite nodes " + nodeNames + " " + taintString;
-            ShellUtil.run(command, mainSettings.getKubeconfigPath(), mainSettings.getHetznerToken());
+    /**
+     * Workers are matched to their pool by name (cluster-type-pool-name-workerN) in a single pass
+     */
+    private Map<String, NodeLabelReconciler.Marks> desiredLabelsAndTaints() {
+        Map<String, NodeLabelReconciler.Marks> desired = new LinkedHashMap<>();
+        NodeLabelReconciler.Marks masterMarks = new NodeLabelReconciler.Marks(mainSettings.getMastersPool().getLabels(), mainSettings.getMastersPool().getTaints());
+        for (Server master : servers.get(CreateCluster.ServerType.MASTER)) {
+            desired.put(master.getName(), masterMarks);
         }
-    }
-
-    private void addLabelsAndTaintsToWorkers() {
-        System.out.println("\nAdding labels and taints to workers...");
-        List<Server> workers = servers.get(CreateCluster.ServerType.WORKER);
 
+        Map<String, NodeLabelReconciler.Marks> marksByPrefix = new HashMap<>();
         for (NodePool nodePool : mainSettings.getWorkerNodePools()) {
-            String instanceType = nodePool.getInstanceType();
-            String nodePoolRegex = mainSettings.getClusterName() + "-" + instanceType + "-pool-" + nodePool.getName() + "-worker";
-            Pattern pattern = Pattern.compile(nodePoolRegex);
-
-            List<Server> nodes = workers.stream()
-                    .filter(worker -> pattern.matcher(worker.getName()).matches())
-                    .collect(Collectors.toList());
-
-            String nodeNames = nodes.stream().map(Server::getName).collect(Collectors.joining(" "));
-            addLabelsToWorkers(nodePool, nodeNames);
-            addTaintsToWorkers(nodePool, nodeNames);
+            String prefix = mainSettings.getClusterName() + "-" + nodePool.getInstanceType() + "-pool-" + nodePool.getName() + "-worker";
+            marksByPrefix.put(prefix, new NodeLabelReconciler.Marks(nodePool.getLabels(), nodePool.getTaints()));
         }
-
-        System.out.println("...done.");
-    }
-
-    private void addTaintsToWorkers(NodePool nodePool, String nodeNames) {
-        if (nodePool.getTaints() == null || nodePool.getTaints().length == 0) {
-            return;
-        }
-        String allMarks = Arrays.stream(nodePool.getTaints())
-                .map(taint -> taint.getKey() + "=" + taint.getValue())
-                .collect(Collectors.joining(" "));
-
-        String command = "kubectl taint --overwrite nodes " + nodeNames + " " + allMarks;
-        ShellUtil.run(command, mainSettings.getKubeconfigPath(), mainSettings.getHetznerToken());
-    }
-
-    private void addLabelsToWorkers(NodePool nodePool, String nodeNames) {
-        if (nodePool.getLabels() == null || nodePool.getLabels().length == 0) {
-            return;
+        for (Server worker : servers.get(CreateCluster.ServerType.WORKER)) {
+            NodeLabelReconciler.Marks marks = marksByPrefix.get(StringUtils.stripEnd(worker.getName(), "0123456789"));
+            if (marks != null) {
+                desired.put(worker.getName(), marks);
+            }
         }
-        String allMarks = Arrays.stream(nodePool.getLabels())
-                .map(label -> label.getKey() + "=" + label.getValue())
-                .collect(Collectors.joining(" "));
-
-        String command = "kubectl label --overwrite nodes " + nodeNames + " " + allMarks;
-        ShellUtil.run(command, mainSettings.getKubeconfigPath(), mainSettings.getHetznerToken());
+        return desired;
     }
 
     private String generateTlsSans() {
@@ -677,6 +681,26 @@ public class KubernetesInstaller {
         return TemplateUtil.renderTemplate(TemplateUtil.MASTER_INSTALL_SCRIPT, map);
     }
 
+    /**
+     * Token of the running cluster, only looked up over ssh once per run (and not at all if it is in the cached state)
+     */
+    private String getK3sToken() {
+        if (k3sToken == null) {
+            String cachedToken = stateCache.getK3sToken();
+            if (cachedToken != null) {
+                k3sToken = cachedToken;
+            } else {
+                Triple<String, Server, Integer> tokenVsServerVsServerIndex = getK3sTokenByFallingBackToDifferentMasters();
+                k3sToken = tokenVsServerVsServerIndex.getLeft();
+                // A token generated because no master answered isn't the cluster's token, it must not be trusted next run
+                if (tokenVsServerVsServerIndex.getMiddle() != null) {
+                    stateCache.saveK3sToken(k3sToken);
+                }
+            }
+        }
+        return k3sToken;
+    }
+
     /**
      * When upgrading or deleted first master, need to join first master to existing cluster
      * hence falling back to other masters to get token, then we can setup first master to join the cluster
@@ -689,8 +713,7 @@ public class KubernetesInstaller {
 
         int index = 0;
         for (Server server : serverList) {
-            String command = "cat /var/lib/rancher/k3s/server/node-token";
-            token = ssh.ssh(server, mainSettings.getSshPort(), command, mainSettings.isUseSSHAgent(), false);
+            token = ssh.ssh(server, mainSettings.getSshPort(), NODE_TOKEN_COMMAND, mainSettings.isUseSSHAgent(), false);
             if (StringUtils.isNotBlank(token)) {
                 masterServerWithToken = server;
                 masterServerIndex = index;
@@ -0,0 +1,208 @@
+package io.easystartup.kubernetes;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.easystartup.configuration.KeyValuePair;
+import io.easystartup.kubernetes.client.KubernetesApiException;
+import io.easystartup.kubernetes.client.KubernetesClient;
+import io.easystartup.utils.ConsoleColors;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * @author indianBond
+ *
+ * Brings the labels and taints of the nodes to what the node pools ask for. All nodes are read with one list call, and
+ * only nodes which differ get a patch (one per node, labels and taints together), a bounded number of them at a time.
+ * Labels and taints which aren't configured are left alone, like `kubectl label/taint --overwrite` did.
+ */
+public class NodeLabelReconciler {
+
+    private static final int MAX_CONCURRENT_PATCHES = 64;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final KubernetesClient kubernetesClient;
+
+    public NodeLabelReconciler(KubernetesClient kubernetesClient) {
+        this.kubernetesClient = kubernetesClient;
+    }
+
+    /**
+     * Desired labels and taints of one node, taints are written key=value:effect like for kubectl taint
+     */
+    public static class Marks {
+        private final KeyValuePair[] labels;
+        private final KeyValuePair[] taints;
+
+        public Marks(KeyValuePair[] labels, KeyValuePair[] taints) {
+            this.labels = labels == null ? new KeyValuePair[0] : labels;
+            this.taints = taints == null ? new KeyValuePair[0] : taints;
+        }
+
+        private boolean isEmpty() {
+            return labels.length == 0 && taints.length == 0;
+        }
+    }
+
+    /**
+     * Returns the names of the nodes which couldn't be patched, nodes which don't exist are skipped
+     */
+    public List<String> reconcile(Map<String, Marks> desired) {
+        if (desired.values().stream().allMatch(Marks::isEmpty)) {
+            return List.of();
+        }
+        Map<String, JsonNode> nodes = new HashMap<>();
+        for (JsonNode node : kubernetesClient.get("/api/v1/nodes").path("items")) {
+            nodes.put(node.path("metadata").path("name").asText(), node);
+        }
+
+        Semaphore patches = new Semaphore(MAX_CONCURRENT_PATCHES);
+        Map<String, Future<?>> futures = new LinkedHashMap<>();
+        int unchanged = 0;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Map.Entry<String, Marks> entry : desired.entrySet()) {
+                JsonNode node = nodes.get(entry.getKey());
+                if (node == null || entry.getValue().isEmpty()) {
+                    continue;
+                }
+                ObjectNode patch = patch(node, entry.getValue());
+                if (patch == null) {
+                    unchanged++;
+                    continue;
+                }
+                futures.put(entry.getKey(), executor.submit(() -> {
+                    patches.acquire();
+                    try {
+                        apply(entry.getKey(), entry.getValue(), patch);
+                    } finally {
+                        patches.release();
+                    }
+                    return null;
+                }));
+            }
+        }
+
+        List<String> failed = new ArrayList<>();
+        for (Map.Entry<String, Future<?>> entry : futures.entrySet()) {
+            try {
+                entry.getValue().get();
+            } catch (ExecutionException e) {
+                System.out.println(ConsoleColors.YELLOW + "Failed to update labels and taints of " + entry.getKey() + ": " + e.getCause().getMessage() + ConsoleColors.RESET);
+                failed.add(entry.getKey());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        System.out.println("Labels and taints: " + (futures.size() - failed.size()) + " nodes updated, " + unchanged + " already up to date");
+        return failed;
+    }
+
+    /**
+     * The taints in the patch were computed from a given version of the node, if it changed since the patch is
+     * rejected and computed again
+     */
+    private void apply(String nodeName, Marks marks, ObjectNode patch) {
+        String path = "/api/v1/nodes/" + nodeName;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                kubernetesClient.strategicMergePatch(path, patch);
+                return;
+            } catch (KubernetesApiException e) {
+                if (e.getStatusCode() != 409 || attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+            }
+            patch = patch(kubernetesClient.get(path), marks);
+            if (patch == null) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Null when the node already has everything
+     */
+    private static ObjectNode patch(JsonNode node, Marks marks) {
+        ObjectNode patch = OBJECT_MAPPER.createObjectNode();
+        ObjectNode metadata = patch.putObject("metadata");
+
+        JsonNode currentLabels = node.path("metadata").path("labels");
+        ObjectNode labels = OBJECT_MAPPER.createObjectNode();
+        for (KeyValuePair label : marks.labels) {
+            String value = label.getValue() == null ? "" : label.getValue();
+            if (!value.equals(currentLabels.path(label.getKey()).asText(null))) {
+                labels.put(label.getKey(), value);
+            }
+        }
+        if (!labels.isEmpty()) {
+            metadata.set("labels", labels);
+        }
+
+        ArrayNode taints = taints(node.path("spec").path("taints"), marks.taints);
+        if (taints != null) {
+            // Replaces the whole list, merging on the taint key alone would mix up taints with the same key but
+            // different effects
+            ArrayNode replace = OBJECT_MAPPER.createArrayNode();
+            replace.addObject().put("$patch", "replace");
+            replace.addAll(taints);
+            patch.putObject("spec").set("taints", replace);
+            metadata.put("resourceVersion", node.path("metadata").path("resourceVersion").asText());
+        }
+
+        if (labels.isEmpty() && taints == null) {
+            return null;
+        }
+        return patch;
+    }
+
+    /**
+     * A configured taint replaces the taint with the same key and effect, the others are kept. Null when nothing changes.
+     */
+    private static ArrayNode taints(JsonNode current, KeyValuePair[] configured) {
+        if (configured.length == 0) {
+            return null;
+        }
+        List<ObjectNode> wanted = new ArrayList<>();
+        for (KeyValuePair taint : configured) {
+            wanted.add(taint(taint));
+        }
+        ArrayNode result = OBJECT_MAPPER.createArrayNode();
+        boolean changed = false;
+        for (JsonNode existing : current) {
+            ObjectNode replacement = wanted.stream()
+                    .filter(val -> val.path("key").equals(existing.path("key")) && val.path("effect").equals(existing.path("effect")))
+                    .findFirst()
+                    .orElse(null);
+            if (replacement == null) {
+                result.add(existing);
+            } else {
+                changed |= !replacement.path("value").asText("").equals(existing.path("value").asText(""));
+                wanted.remove(replacement);
+                result.add(replacement);
+            }
+        }
+        changed |= !wanted.isEmpty();
+        result.addAll(wanted);
+        return changed ? result : null;
+    }
+
+    private static ObjectNode taint(KeyValuePair taint) {
+        String value = taint.getValue() == null ? "" : taint.getValue();
+        int effectIndex = value.lastIndexOf(':');
+        if (effectIndex < 0) {
+            throw new RuntimeException("Taint " + taint.getKey() + " has no effect, expected key=value:effect");
+        }
+        ObjectNode node = OBJECT_MAPPER.createObjectNode();
+        node.put("key", taint.getKey());
+        if (effectIndex > 0) {
+            node.put("value", value.substring(0, effectIndex));
+        }
+        node.put("effect", value.substring(effectIndex + 1));
+        return node;
+    }
+}
@@ -0,0 +1,150 @@
+package io.easystartup.kubernetes;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.easystartup.kubernetes.client.KubernetesClient;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+import static io.easystartup.utils.Util.sleep;
+
+/*
+ * @author indianBond
+ *
+ * Follows the nodes with a single watch on /api/v1/nodes instead of polling. Phases which need some nodes wait on just
+ * those, and are let through the moment they are registered or turn Ready. How long each node took to become Ready
+ * after it was expected is printed as it happens.
+ */
+public class NodeReadinessTracker implements AutoCloseable {
+
+    private static final long RETRY_MILLIS = 2_000;
+
+    private final Supplier<KubernetesClient> kubernetesClient;
+    private final Map<String, CompletableFuture<Void>> ready = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Void>> registered = new ConcurrentHashMap<>();
+    private final Map<String, Long> expectedAt = new ConcurrentHashMap<>();
+    private final Set<String> seenReady = ConcurrentHashMap.newKeySet();
+    private final KubernetesClient.WatchHandle watch = new KubernetesClient.WatchHandle();
+    private volatile boolean closed;
+    private Thread watcher;
+
+    /**
+     * The client is only asked for once watching starts, nodes can be expected before there is a kubeconfig
+     */
+    public NodeReadinessTracker(Supplier<KubernetesClient> kubernetesClient) {
+        this.kubernetesClient = kubernetesClient;
+    }
+
+    /**
+     * Starts watching in the background. Until the api server answers, the watch is retried.
+     */
+    public synchronized NodeReadinessTracker start() {
+        if (watcher == null) {
+            watcher = Thread.ofVirtual().name("node-readiness").start(this::watchLoop);
+        }
+        return this;
+    }
+
+    /**
+     * Nodes are timed from when they are first expected, typically right before k3s is installed on them
+     */
+    public void expect(Collection<String> nodeNames) {
+        long now = System.currentTimeMillis();
+        for (String nodeName : nodeNames) {
+            expectedAt.putIfAbsent(nodeName, now);
+            future(ready, nodeName);
+        }
+    }
+
+    /**
+     * Waits until all the nodes are Ready, returns those which still weren't when the timeout expired
+     */
+    public List<String> awaitReady(Collection<String> nodeNames, Duration timeout) {
+        expect(nodeNames);
+        return await(ready, nodeNames, timeout);
+    }
+
+    /**
+     * Waits until all the nodes are known to the api server, Ready or not, returns those which still weren't when the
+     * timeout expired
+     */
+    public List<String> awaitRegistered(Collection<String> nodeNames, Duration timeout) {
+        return await(registered, nodeNames, timeout);
+    }
+
+    private static List<String> await(Map<String, CompletableFuture<Void>> futuresByNode, Collection<String> nodeNames, Duration timeout) {
+        CompletableFuture<?>[] futures = nodeNames.stream().map(nodeName -> future(futuresByNode, nodeName)).toArray(CompletableFuture[]::new);
+        try {
+            CompletableFuture.allOf(futures).get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ignored) {
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        return nodeNames.stream().filter(nodeName -> !future(futuresByNode, nodeName).isDone()).toList();
+    }
+
+    /**
+     * Stops watching, the watch request in flight is cancelled
+     */
+    @Override
+    public void close() {
+        closed = true;
+        watch.cancel();
+        if (watcher != null) {
+            // Ends the wait before a retry
+            watcher.interrupt();
+        }
+    }
+
+    private static CompletableFuture<Void> future(Map<String, CompletableFuture<Void>> futuresByNode, String nodeName) {
+        return futuresByNode.computeIfAbsent(nodeName, name -> new CompletableFuture<>());
+    }
+
+    private void watchLoop() {
+        while (!closed) {
+            try {
+                // The watch is restarted from a fresh list every hour, a long living watch may silently stall
+                kubernetesClient.get().watch("/api/v1/nodes", Duration.ofHours(1), event -> {
+                    onEvent(event);
+                    return closed;
+                }, watch);
+            } catch (RuntimeException e) {
+                // Api server not reachable (yet), or the connection dropped
+                if (!closed) {
+                    sleep(RETRY_MILLIS);
+                }
+            }
+        }
+    }
+
+    private void onEvent(JsonNode event) {
+        if ("DELETED".equals(event.path("type").asText())) {
+            return;
+        }
+        JsonNode node = event.path("object");
+        String nodeName = node.path("metadata").path("name").asText();
+        future(registered, nodeName).complete(null);
+        if (!isReady(node) || !seenReady.add(nodeName)) {
+            return;
+        }
+        Long expected = expectedAt.get(nodeName);
+        if (expected != null) {
+            System.out.println("Node " + nodeName + " is Ready (" + (System.currentTimeMillis() - expected) / 1000 + "s after joining started)");
+        }
+        future(ready, nodeName).complete(null);
+    }
+
+    private static boolean isReady(JsonNode node) {
+        for (JsonNode condition : node.path("status").path("conditions")) {
+            if ("Ready".equals(condition.path("type").asText())) {
+                return "True".equals(condition.path("status").asText());
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,146 @@
+package io.easystartup.kubernetes.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+import io.easystartup.utils.Util;
+import org.apache.sshd.common.NamedResource;
+import org.apache.sshd.common.util.security.SecurityUtils;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.util.Base64;
+import java.util.Collection;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/*
+ * @author indianBond
+ *
+ * The parts of a kubeconfig the api client needs: the server of the current context and how to trust it and log in to
+ * it. Only inline (base64 *-data) certificates and keys are read, which is what k3s writes.
+ */
+public class Kubeconfig {
+
+    private final String server;
+    private final String certificateAuthorityData;
+    private final String clientCertificateData;
+    private final String clientKeyData;
+    private final String token;
+
+    private Kubeconfig(String server, String certificateAuthorityData, String clientCertificateData, String clientKeyData, String token) {
+        this.server = server;
+        this.certificateAuthorityData = certificateAuthorityData;
+        this.clientCertificateData = clientCertificateData;
+        this.clientKeyData = clientKeyData;
+        this.token = token;
+    }
+
+    public static Kubeconfig load(String kubeconfigPath) {
+        Path path = Path.of(Util.replaceTildaWithFullHomePath(kubeconfigPath));
+        JsonNode root;
+        try {
+            root = new YAMLMapper().readTree(Files.readString(path));
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read kubeconfig " + path, e);
+        }
+        String currentContext = root.path("current-context").asText();
+        JsonNode context = named(root.path("contexts"), currentContext, "context").path("context");
+        JsonNode cluster = named(root.path("clusters"), context.path("cluster").asText(), "cluster").path("cluster");
+        JsonNode user = named(root.path("users"), context.path("user").asText(), "user").path("user");
+
+        String server = cluster.path("server").asText();
+        if (server.endsWith("/")) {
+            server = server.substring(0, server.length() - 1);
+        }
+        return new Kubeconfig(
+                server,
+                textOrNull(cluster, "certificate-authority-data"),
+                textOrNull(user, "client-certificate-data"),
+                textOrNull(user, "client-key-data"),
+                textOrNull(user, "token"));
+    }
+
+    private static JsonNode named(JsonNode list, String name, String what) {
+        for (JsonNode node : list) {
+            if (name.equals(node.path("name").asText())) {
+                return node;
+            }
+        }
+        throw new RuntimeException("No " + what + " named '" + name + "' in kubeconfig");
+    }
+
+    private static String textOrNull(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public SSLContext createSslContext() {
+        try {
+            TrustManagerFactory trustManagerFactory = null;
+            if (isNotBlank(certificateAuthorityData)) {
+                KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+                trustStore.load(null, null);
+                int i = 0;
+                for (Certificate certificate : certificates(certificateAuthorityData)) {
+                    trustStore.setCertificateEntry("ca-" + i++, certificate);
+                }
+                trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                trustManagerFactory.init(trustStore);
+            }
+
+            KeyManagerFactory keyManagerFactory = null;
+            if (isNotBlank(clientCertificateData) && isNotBlank(clientKeyData)) {
+                char[] password = new char[0];
+                KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+                keyStore.load(null, null);
+                keyStore.setKeyEntry("client", privateKey(clientKeyData).getPrivate(), password, certificates(clientCertificateData).toArray(new Certificate[0]));
+                keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+                keyManagerFactory.init(keyStore, password);
+            }
+
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(keyManagerFactory == null ? null : keyManagerFactory.getKeyManagers(),
+                    trustManagerFactory == null ? null : trustManagerFactory.getTrustManagers(),
+                    null);
+            return sslContext;
+        } catch (GeneralSecurityException | IOException e) {
+            throw new RuntimeException("Unable to set up TLS from kubeconfig", e);
+        }
+    }
+
+    private static Collection<? extends Certificate> certificates(String base64Pem) throws GeneralSecurityException {
+        return CertificateFactory.getInstance("X.509").generateCertificates(new ByteArrayInputStream(Base64.getDecoder().decode(base64Pem)));
+    }
+
+    /**
+     * k3s writes the client key as a SEC1 "EC PRIVATE KEY", which the JDK can't read by itself, so the PEM parsers
+     * already used for ssh keys are reused (they also handle PKCS#1 RSA and PKCS#8 keys)
+     */
+    private static KeyPair privateKey(String base64Pem) throws GeneralSecurityException, IOException {
+        String pem = new String(Base64.getDecoder().decode(base64Pem), StandardCharsets.UTF_8);
+        Collection<KeyPair> keyPairs = SecurityUtils.getKeyPairResourceParser().loadKeyPairs(null, NamedResource.ofName("kubeconfig"), null, pem);
+        if (keyPairs == null || keyPairs.isEmpty()) {
+            throw new GeneralSecurityException("Unsupported client key in kubeconfig");
+        }
+        return keyPairs.iterator().next();
+    }
+}
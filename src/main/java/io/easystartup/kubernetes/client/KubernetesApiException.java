@@ -0,0 +1,32 @@
+package io.easystartup.kubernetes.client;
+
+/*
+ * @author indianBond
+ */
+public class KubernetesApiException extends RuntimeException {
+
+    private final int statusCode;
+    private final String reason;
+
+    public KubernetesApiException(int statusCode, String reason, String message) {
+        super("Kubernetes API error " + statusCode + " (" + reason + "): " + message);
+        this.statusCode = statusCode;
+        this.reason = reason;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Reason from the returned Status object, eg: NotFound, AlreadyExists, Conflict
+     * <a href="https://kubernetes.io/docs/reference/using-api/api-concepts/#response-status-kind">...</a>
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    public boolean isNotFound() {
+        return statusCode == 404;
+    }
+}
@@ -0,0 +1,413 @@
+package io.easystartup.kubernetes.client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.yaml.YAMLMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static io.easystartup.utils.Util.sleep;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/*
+ * @author indianBond
+ *
+ * Minimal client for the kubernetes api, enough to install a cluster without kubectl on the local machine: get, patch,
+ * server side apply and watch. One client per kubeconfig for the whole process, so all calls are multiplexed over one
+ * HTTP/2 connection to the api server.
+ */
+public class KubernetesClient {
+
+    public static final String FIELD_MANAGER = "k3s-simplified";
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+    // A CRD applied by the same manifest takes a moment to be served
+    private static final Duration DISCOVERY_WAIT = Duration.ofSeconds(30);
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final YAMLMapper YAML_MAPPER = new YAMLMapper();
+
+    private static final HttpClient DOWNLOAD_CLIENT = HttpClient.newBuilder()
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+
+    private static final Map<String, KubernetesClient> CLIENTS = new ConcurrentHashMap<>();
+
+    private final String server;
+    private final String token;
+    private final HttpClient httpClient;
+    // group version (eg: v1, apps/v1) -> kind -> resource
+    private final Map<String, Map<String, ApiResource>> discovery = new ConcurrentHashMap<>();
+
+    private KubernetesClient(Kubeconfig kubeconfig) {
+        this.server = kubeconfig.getServer();
+        this.token = kubeconfig.getToken();
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(30))
+                .sslContext(kubeconfig.createSslContext())
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    /**
+     * The kubeconfig is read on first use, later calls for the same path share that client
+     */
+    public static KubernetesClient forKubeconfig(String kubeconfigPath) {
+        return CLIENTS.computeIfAbsent(kubeconfigPath, path -> new KubernetesClient(Kubeconfig.load(path)));
+    }
+
+    /**
+     * Forgets the client of that kubeconfig, for when the file was rewritten
+     */
+    public static void reset(String kubeconfigPath) {
+        CLIENTS.remove(kubeconfigPath);
+    }
+
+    public JsonNode get(String path) {
+        return send(request(path).GET());
+    }
+
+    /**
+     * Null when the object doesn't exist
+     */
+    public JsonNode getOrNull(String path) {
+        try {
+            return get(path);
+        } catch (KubernetesApiException e) {
+            if (e.isNotFound()) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    public JsonNode mergePatch(String path, JsonNode patch) {
+        return patch(path, patch, "application/merge-patch+json", Map.of());
+    }
+
+    public JsonNode strategicMergePatch(String path, JsonNode patch) {
+        return patch(path, patch, "application/strategic-merge-patch+json", Map.of());
+    }
+
+    /**
+     * Server side apply of a single object, creating it if needed. Conflicts with other field managers are forced,
+     * same as `kubectl apply --server-side --force-conflicts`
+     */
+    public JsonNode apply(JsonNode object) {
+        Map<String, String> query = new HashMap<>();
+        query.put("fieldManager", FIELD_MANAGER);
+        query.put("force", "true");
+        return patch(objectPath(object), object, "application/apply-patch+yaml", query);
+    }
+
+    /**
+     * Applies every object of a (multi document) yaml manifest, in order
+     */
+    public List<JsonNode> applyManifest(String manifest) {
+        List<JsonNode> applied = new ArrayList<>();
+        for (JsonNode object : parseManifest(manifest)) {
+            applied.add(apply(object));
+        }
+        return applied;
+    }
+
+    public List<JsonNode> applyManifestFromUrl(String url) {
+        return applyManifest(download(url));
+    }
+
+    /**
+     * Watches the collection (eg: /api/v1/nodes) until the handler returns true for an event, or the timeout expires.
+     * The initial state is delivered as ADDED events first. Returns whether the handler was satisfied.
+     */
+    public boolean watch(String collectionPath, Duration timeout, Predicate<JsonNode> handler) {
+        return watch(collectionPath, timeout, handler, new WatchHandle());
+    }
+
+    /**
+     * Same as watch, which can also be stopped from another thread through the handle (returning false)
+     */
+    public boolean watch(String collectionPath, Duration timeout, Predicate<JsonNode> handler, WatchHandle handle) {
+        long deadline = System.currentTimeMillis() + timeout.toMillis();
+        String resourceVersion = null;
+        while (!handle.isCancelled() && System.currentTimeMillis() < deadline) {
+            if (resourceVersion == null) {
+                JsonNode list = get(collectionPath);
+                for (JsonNode item : list.path("items")) {
+                    ObjectNode event = OBJECT_MAPPER.createObjectNode();
+                    event.put("type", "ADDED");
+                    event.set("object", item);
+                    if (handler.test(event)) {
+                        return true;
+                    }
+                }
+                resourceVersion = list.path("metadata").path("resourceVersion").asText();
+            }
+            long remainingSeconds = Math.max(1, (deadline - System.currentTimeMillis()) / 1000);
+            Map<String, String> query = new HashMap<>();
+            query.put("watch", "true");
+            query.put("allowWatchBookmarks", "true");
+            query.put("resourceVersion", resourceVersion);
+            query.put("timeoutSeconds", String.valueOf(remainingSeconds));
+            HttpRequest request = request(collectionPath, query, Duration.ofSeconds(remainingSeconds + 30)).GET().build();
+            CompletableFuture<HttpResponse<Stream<String>>> sent = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofLines());
+            handle.setInFlight(() -> sent.cancel(true));
+            HttpResponse<Stream<String>> response;
+            try {
+                response = sent.join();
+            } catch (CancellationException e) {
+                return false;
+            } catch (CompletionException e) {
+                throw new RuntimeException("Unable to reach the kubernetes api at " + server, e.getCause());
+            }
+            if (response.statusCode() >= 300) {
+                throw apiException(response.statusCode(), String.join("\n", response.body().toList()));
+            }
+            try (Stream<String> lines = response.body()) {
+                // Closing the body ends a read blocked waiting for the next event
+                handle.setInFlight(lines::close);
+                for (String line : (Iterable<String>) lines::iterator) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    JsonNode event = readJson(line);
+                    String type = event.path("type").asText();
+                    if ("ERROR".equals(type)) {
+                        // Usually 410 Gone, the resource version is too old, start over with a fresh list
+                        resourceVersion = null;
+                        break;
+                    }
+                    resourceVersion = event.path("object").path("metadata").path("resourceVersion").asText(resourceVersion);
+                    if (!"BOOKMARK".equals(type) && handler.test(event)) {
+                        return true;
+                    }
+                }
+            } catch (UncheckedIOException e) {
+                // Connection dropped (or the watch was cancelled), resume from the last seen resource version
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Cancels a running watch, the request in flight is aborted right away instead of the watch only stopping on the
+     * next event
+     */
+    public static class WatchHandle {
+
+        private volatile boolean cancelled;
+        private volatile Runnable inFlight;
+
+        public void cancel() {
+            cancelled = true;
+            Runnable abort = inFlight;
+            if (abort != null) {
+                abort.run();
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void setInFlight(Runnable abort) {
+            inFlight = abort;
+            // Cancelled in between, cancel() may have aborted the previous request only
+            if (cancelled) {
+                abort.run();
+            }
+        }
+    }
+
+    public static List<JsonNode> parseManifest(String manifest) {
+        List<JsonNode> objects = new ArrayList<>();
+        try (MappingIterator<JsonNode> documents = YAML_MAPPER.readerFor(JsonNode.class).readValues(manifest)) {
+            while (documents.hasNext()) {
+                JsonNode document = documents.next();
+                if (document == null || document.isNull() || document.isEmpty()) {
+                    continue;
+                }
+                if (document.path("kind").asText().endsWith("List") && document.has("items")) {
+                    document.path("items").forEach(objects::add);
+                } else {
+                    objects.add(document);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Invalid manifest", e);
+        }
+        return objects;
+    }
+
+    /**
+     * Url of the object, eg: /apis/apps/v1/namespaces/kube-system/deployments/hcloud-cloud-controller-manager
+     */
+    public String objectPath(JsonNode object) {
+        String apiVersion = object.path("apiVersion").asText();
+        String kind = object.path("kind").asText();
+        JsonNode metadata = object.path("metadata");
+        ApiResource resource = resource(apiVersion, kind);
+        StringBuilder path = new StringBuilder(apiVersion.contains("/") ? "/apis/" : "/api/").append(apiVersion);
+        if (resource.namespaced) {
+            path.append("/namespaces/").append(metadata.path("namespace").asText("default"));
+        }
+        return path.append('/').append(resource.name).append('/').append(metadata.path("name").asText()).toString();
+    }
+
+    private ApiResource resource(String apiVersion, String kind) {
+        long deadline = System.currentTimeMillis() + DISCOVERY_WAIT.toMillis();
+        while (true) {
+            Map<String, ApiResource> resources = discovery.get(apiVersion);
+            if (resources == null || !resources.containsKey(kind)) {
+                resources = discover(apiVersion);
+            }
+            ApiResource resource = resources.get(kind);
+            if (resource != null) {
+                return resource;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new RuntimeException("The api server doesn't serve " + kind + " in " + apiVersion);
+            }
+            sleep(1_000);
+        }
+    }
+
+    private Map<String, ApiResource> discover(String apiVersion) {
+        Map<String, ApiResource> resources = new HashMap<>();
+        try {
+            JsonNode list = get((apiVersion.contains("/") ? "/apis/" : "/api/") + apiVersion);
+            for (JsonNode resource : list.path("resources")) {
+                String name = resource.path("name").asText();
+                // Skip sub resources, eg: pods/log
+                if (!name.contains("/")) {
+                    resources.put(resource.path("kind").asText(), new ApiResource(name, resource.path("namespaced").asBoolean()));
+                }
+            }
+        } catch (KubernetesApiException e) {
+            if (!e.isNotFound()) {
+                throw e;
+            }
+        }
+        discovery.put(apiVersion, resources);
+        return resources;
+    }
+
+    private JsonNode patch(String path, JsonNode body, String contentType, Map<String, String> query) {
+        String json;
+        try {
+            json = OBJECT_MAPPER.writeValueAsString(body);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+        HttpRequest.Builder request = request(path, query, REQUEST_TIMEOUT)
+                .header("Content-Type", contentType)
+                .method("PATCH", HttpRequest.BodyPublishers.ofString(json));
+        return send(request);
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return request(path, Map.of(), REQUEST_TIMEOUT);
+    }
+
+    private HttpRequest.Builder request(String path, Map<String, String> query, Duration timeout) {
+        StringBuilder uri = new StringBuilder(server).append(path);
+        char separator = '?';
+        for (Map.Entry<String, String> entry : query.entrySet()) {
+            uri.append(separator).append(entry.getKey()).append('=').append(URLEncoder.encode(entry.getValue(), StandardCharsets.UTF_8));
+            separator = '&';
+        }
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(uri.toString()))
+                .timeout(timeout)
+                .header("Accept", "application/json");
+        if (isNotBlank(token)) {
+            builder.header("Authorization", "Bearer " + token);
+        }
+        return builder;
+    }
+
+    private JsonNode send(HttpRequest.Builder request) {
+        HttpResponse<String> response = sendRaw(request.build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() >= 300) {
+            throw apiException(response.statusCode(), response.body());
+        }
+        return readJson(response.body());
+    }
+
+    private <T> HttpResponse<T> sendRaw(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler) {
+        try {
+            return httpClient.send(request, bodyHandler);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to reach the kubernetes api at " + server, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static KubernetesApiException apiException(int statusCode, String body) {
+        try {
+            JsonNode status = OBJECT_MAPPER.readTree(body);
+            return new KubernetesApiException(statusCode, status.path("reason").asText(), status.path("message").asText(body));
+        } catch (IOException e) {
+            return new KubernetesApiException(statusCode, "", body);
+        }
+    }
+
+    private static JsonNode readJson(String json) {
+        try {
+            return OBJECT_MAPPER.readTree(json);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static String download(String url) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url)).timeout(REQUEST_TIMEOUT).GET().build();
+        HttpResponse<String> response;
+        try {
+            response = DOWNLOAD_CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to download manifest " + url, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("Unable to download manifest " + url + ", status " + response.statusCode());
+        }
+        return response.body();
+    }
+
+    private static class ApiResource {
+        private final String name;
+        private final boolean namespaced;
+
+        private ApiResource(String name, boolean namespaced) {
+            this.name = name;
+            this.namespaced = namespaced;
+        }
+    }
+}
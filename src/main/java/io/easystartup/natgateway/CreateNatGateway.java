@@ -145,7 +145,7 @@ public class CreateNatGateway {
         System.out.println("Creating network");
         io.easystartup.cloud.hetzner.location.Location location1 = new io.easystartup.cloud.hetzner.location.Location(hetznerClient);
         Location hetznerLocation = location1.getLocation(location);
-        return nw.create(networkName, privateNetworkSubnet, hetznerLocation.getNetworkZone());
+        return nw.create(mainSettings.getClusterName(), networkName, privateNetworkSubnet, hetznerLocation.getNetworkZone());
     }
 
     private SSHKey createSSH() {
@@ -0,0 +1,298 @@
+package io.easystartup.sshmux;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.easystartup.utils.SSH;
+
+import java.time.Duration;
+
+/*
+ * @author indianBond
+ *
+ * A request to, or a response from, the ssh-mux daemon. Sent as json lines over the unix socket, one request and one
+ * response per connection. The response to an execute is preceded by an output message per line the command printed.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class MuxMessage {
+
+    public static final String EXEC = "exec";
+    public static final String EXECUTE = "execute";
+    public static final String OUTPUT = "output";
+    public static final String UPLOAD = "upload";
+    public static final String PING = "ping";
+    public static final String STOP = "stop";
+
+    @JsonProperty("op")
+    private String op;
+
+    @JsonProperty("host")
+    private String host;
+
+    @JsonProperty("port")
+    private int port;
+
+    @JsonProperty("command")
+    private String command;
+
+    @JsonProperty("private_key_path")
+    private String privateKeyPath;
+
+    @JsonProperty("public_key_path")
+    private String publicKeyPath;
+
+    @JsonProperty("jump_host")
+    private String jumpHost;
+
+    @JsonProperty("ssh_agent")
+    private boolean sshAgent;
+
+    @JsonProperty("connect_timeout_millis")
+    private long connectTimeoutMillis;
+
+    @JsonProperty("auth_timeout_millis")
+    private long authTimeoutMillis;
+
+    @JsonProperty("command_timeout_millis")
+    private long commandTimeoutMillis;
+
+    // Upload of either the content itself, or of a local file (the daemon runs as the same user on the same machine)
+    @JsonProperty("content")
+    private byte[] content;
+
+    @JsonProperty("local_path")
+    private String localPath;
+
+    @JsonProperty("sha256")
+    private String sha256;
+
+    @JsonProperty("name")
+    private String name;
+
+    @JsonProperty("remote_path")
+    private String remotePath;
+
+    // HostResult status of an execute
+    @JsonProperty("status")
+    private String status;
+
+    // One line of the output of an execute
+    @JsonProperty("line")
+    private String line;
+
+    @JsonProperty("output")
+    private String output;
+
+    @JsonProperty("error")
+    private String error;
+
+    @JsonProperty("exit_code")
+    private int exitCode;
+
+    // Set when the command could not be run at all
+    @JsonProperty("failure")
+    private String failure;
+
+    public MuxMessage() {
+    }
+
+    public MuxMessage(String op) {
+        this.op = op;
+    }
+
+    public String getOp() {
+        return op;
+    }
+
+    public void setOp(String op) {
+        this.op = op;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public void setCommand(String command) {
+        this.command = command;
+    }
+
+    public String getPrivateKeyPath() {
+        return privateKeyPath;
+    }
+
+    public void setPrivateKeyPath(String privateKeyPath) {
+        this.privateKeyPath = privateKeyPath;
+    }
+
+    public String getPublicKeyPath() {
+        return publicKeyPath;
+    }
+
+    public void setPublicKeyPath(String publicKeyPath) {
+        this.publicKeyPath = publicKeyPath;
+    }
+
+    public String getJumpHost() {
+        return jumpHost;
+    }
+
+    public void setJumpHost(String jumpHost) {
+        this.jumpHost = jumpHost;
+    }
+
+    public boolean isSshAgent() {
+        return sshAgent;
+    }
+
+    public void setSshAgent(boolean sshAgent) {
+        this.sshAgent = sshAgent;
+    }
+
+    public long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(long connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public long getAuthTimeoutMillis() {
+        return authTimeoutMillis;
+    }
+
+    public void setAuthTimeoutMillis(long authTimeoutMillis) {
+        this.authTimeoutMillis = authTimeoutMillis;
+    }
+
+    public long getCommandTimeoutMillis() {
+        return commandTimeoutMillis;
+    }
+
+    public void setCommandTimeoutMillis(long commandTimeoutMillis) {
+        this.commandTimeoutMillis = commandTimeoutMillis;
+    }
+
+    /**
+     * Requests without deadlines (from an older cli) get the ones of a plain command
+     */
+    @JsonIgnore
+    public SSH.Timeouts getTimeouts() {
+        if (connectTimeoutMillis <= 0 || authTimeoutMillis <= 0) {
+            return SSH.Timeouts.COMMAND;
+        }
+        return new SSH.Timeouts(Duration.ofMillis(connectTimeoutMillis), Duration.ofMillis(authTimeoutMillis), Duration.ofMillis(commandTimeoutMillis));
+    }
+
+    @JsonIgnore
+    public void setTimeouts(SSH.Timeouts timeouts) {
+        this.connectTimeoutMillis = timeouts.getConnect().toMillis();
+        this.authTimeoutMillis = timeouts.getAuth().toMillis();
+        this.commandTimeoutMillis = timeouts.getCommand().toMillis();
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public void setContent(byte[] content) {
+        this.content = content;
+    }
+
+    public String getLocalPath() {
+        return localPath;
+    }
+
+    public void setLocalPath(String localPath) {
+        this.localPath = localPath;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getRemotePath() {
+        return remotePath;
+    }
+
+    public void setRemotePath(String remotePath) {
+        this.remotePath = remotePath;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    public void setLine(String line) {
+        this.line = line;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public void setOutput(String output) {
+        this.output = output;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public void setExitCode(int exitCode) {
+        this.exitCode = exitCode;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+
+    public void setFailure(String failure) {
+        this.failure = failure;
+    }
+}
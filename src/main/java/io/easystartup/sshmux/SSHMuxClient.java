@@ -0,0 +1,166 @@
+package io.easystartup.sshmux;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.easystartup.utils.HostResult;
+import io.easystartup.utils.RemoteOutput;
+import io.easystartup.utils.SSH;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/*
+ * @author indianBond
+ */
+public class SSHMuxClient {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static volatile boolean enabled;
+
+    public static Path socketPath() {
+        return Paths.get(System.getProperty("user.home"), ".k3s-simplified", "ssh-mux.sock");
+    }
+
+    /**
+     * Only with ssh_mux set are commands sent to the daemon, one left running by an earlier run is otherwise ignored.
+     * Never enabled inside the daemon itself, there commands must run locally.
+     */
+    public static void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Runs the command through the daemon. Returns null when no daemon is running, in which case the caller runs it
+     * itself; once the daemon took the request its answer is final (the command may already have run).
+     */
+    public static SSH.CommandResult exec(MuxMessage request) {
+        MuxMessage response = sendIfRunning(request);
+        if (response == null) {
+            return null;
+        }
+        if (response.getFailure() != null) {
+            throw new RuntimeException("SSH command execution failed: " + response.getFailure());
+        }
+        return new SSH.CommandResult(request.getHost(), response.getOutput(), response.getError(), response.getExitCode());
+    }
+
+    /**
+     * Like exec, but the output is written to the given output line by line while the command runs. Never throws, same
+     * as SSH.execute.
+     */
+    public static HostResult execute(String serverName, MuxMessage request, RemoteOutput output) {
+        SocketChannel channel = connectIfRunning();
+        if (channel == null) {
+            return null;
+        }
+        try (channel; OutputStream out = Channels.newOutputStream(channel);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8))) {
+            writeRequest(channel, out, request);
+            for (String line; (line = reader.readLine()) != null; ) {
+                MuxMessage message = OBJECT_MAPPER.readValue(line, MuxMessage.class);
+                if (MuxMessage.OUTPUT.equals(message.getOp())) {
+                    output.write((message.getLine() + "\n").getBytes(StandardCharsets.UTF_8));
+                    continue;
+                }
+                output.close();
+                if (message.getFailure() != null) {
+                    return new HostResult(serverName, HostResult.Status.ERROR, null, output.getTailAsString(), message.getFailure());
+                }
+                HostResult.Status status = HostResult.Status.valueOf(message.getStatus());
+                Integer exitCode = status == HostResult.Status.OK || status == HostResult.Status.NON_ZERO_EXIT ? message.getExitCode() : null;
+                return new HostResult(serverName, status, exitCode, output.getTailAsString(), message.getError());
+            }
+            output.close();
+            return new HostResult(serverName, HostResult.Status.ERROR, null, output.getTailAsString(), "lost connection to the ssh-mux daemon");
+        } catch (IOException | IllegalArgumentException e) {
+            output.close();
+            return new HostResult(serverName, HostResult.Status.ERROR, null, output.getTailAsString(), "lost connection to the ssh-mux daemon: " + e.getMessage());
+        } finally {
+            if (output.isLive()) {
+                RemoteOutput.awaitConsole();
+            }
+        }
+    }
+
+    /**
+     * Uploads through the daemon and returns the remote path, null when no daemon is running
+     */
+    public static String upload(MuxMessage request) {
+        MuxMessage response = sendIfRunning(request);
+        if (response == null) {
+            return null;
+        }
+        if (response.getFailure() != null) {
+            throw new RuntimeException("SFTP upload of " + request.getName() + " failed: " + response.getFailure());
+        }
+        return response.getRemotePath();
+    }
+
+    public static boolean isRunning() {
+        return Files.exists(socketPath()) && send(new MuxMessage(MuxMessage.PING)) != null;
+    }
+
+    public static boolean stop() {
+        return Files.exists(socketPath()) && send(new MuxMessage(MuxMessage.STOP)) != null;
+    }
+
+    private static MuxMessage sendIfRunning(MuxMessage request) {
+        return isUsable() ? send(request) : null;
+    }
+
+    /**
+     * Null if the daemon can't be reached
+     */
+    private static MuxMessage send(MuxMessage request) {
+        SocketChannel channel = connect();
+        if (channel == null) {
+            return null;
+        }
+        try (channel; OutputStream out = Channels.newOutputStream(channel)) {
+            writeRequest(channel, out, request);
+            return OBJECT_MAPPER.readValue(new String(Channels.newInputStream(channel).readAllBytes(), StandardCharsets.UTF_8), MuxMessage.class);
+        } catch (IOException e) {
+            throw new RuntimeException("Lost connection to the ssh-mux daemon", e);
+        }
+    }
+
+    private static SocketChannel connectIfRunning() {
+        return isUsable() ? connect() : null;
+    }
+
+    private static boolean isUsable() {
+        return enabled && Files.exists(socketPath());
+    }
+
+    private static SocketChannel connect() {
+        try {
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                channel.connect(UnixDomainSocketAddress.of(socketPath()));
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            return channel;
+        } catch (IOException e) {
+            // Stale socket of a daemon which is gone
+            return null;
+        }
+    }
+
+    private static void writeRequest(SocketChannel channel, OutputStream out, MuxMessage request) throws IOException {
+        out.write(OBJECT_MAPPER.writeValueAsBytes(request));
+        out.write('\n');
+        out.flush();
+        channel.shutdownOutput();
+    }
+}
@@ -0,0 +1,264 @@
+package io.easystartup.sshmux;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.easystartup.utils.ConsoleColors;
+import io.easystartup.utils.HostResult;
+import io.easystartup.utils.RemoteOutput;
+import io.easystartup.utils.SSH;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.easystartup.utils.Util.sleep;
+
+/*
+ * @author indianBond
+ *
+ * Background process holding authenticated ssh sessions to the cluster nodes across runs of the cli, in the spirit of
+ * OpenSSH ControlMaster. It listens on a unix socket in ~/.k3s-simplified that only the user can access, runs the
+ * commands (streaming their output back) and sftp uploads it is sent on its pooled sessions, and exits by itself after
+ * being idle for a while.
+ */
+public class SSHMuxDaemon {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final int OUTPUT_QUEUE_SIZE = 10_000;
+
+    private final Duration idleTimeout;
+    private final AtomicLong lastRequest = new AtomicLong(System.currentTimeMillis());
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private ServerSocketChannel server;
+
+    public SSHMuxDaemon(Duration idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Starts the daemon in the background, unless one is running already
+     */
+    public static void ensureRunning() {
+        if (SSHMuxClient.isRunning()) {
+            return;
+        }
+        String classPath = System.getProperty("java.class.path");
+        String java = ProcessHandle.current().info().command().orElse(null);
+        if (java == null || classPath == null || classPath.isBlank()) {
+            System.out.println(ConsoleColors.YELLOW + "Unable to start the ssh-mux daemon, run `k3s-simplified ssh-mux &` instead" + ConsoleColors.RESET);
+            return;
+        }
+        try {
+            Files.createDirectories(SSHMuxClient.socketPath().getParent());
+            File log = SSHMuxClient.socketPath().resolveSibling("ssh-mux.log").toFile();
+            new ProcessBuilder(java, "-cp", classPath, "io.easystartup.Main", "ssh-mux")
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.appendTo(log))
+                    .redirectInput(ProcessBuilder.Redirect.from(new File("/dev/null")))
+                    .start();
+        } catch (IOException e) {
+            System.out.println(ConsoleColors.YELLOW + "Unable to start the ssh-mux daemon: " + e.getMessage() + ConsoleColors.RESET);
+            return;
+        }
+        for (int i = 0; i < 50 && !SSHMuxClient.isRunning(); i++) {
+            sleep(100);
+        }
+    }
+
+    /**
+     * Serves requests until idle for the idle timeout or asked to stop
+     */
+    public void run() throws IOException {
+        if (SSHMuxClient.isRunning()) {
+            System.out.println("ssh-mux daemon is already running on " + SSHMuxClient.socketPath());
+            return;
+        }
+        // Sessions are kept while the daemon runs
+        SSH.setIdleTimeout(idleTimeout);
+
+        Path socketPath = SSHMuxClient.socketPath();
+        Files.createDirectories(socketPath.getParent());
+        Files.setPosixFilePermissions(socketPath.getParent(), PosixFilePermissions.fromString("rwx------"));
+        Files.deleteIfExists(socketPath);
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socketPath));
+        Files.setPosixFilePermissions(socketPath, PosixFilePermissions.fromString("rw-------"));
+        System.out.println("ssh-mux daemon listening on " + socketPath);
+
+        ScheduledExecutorService idleCheck = Executors.newSingleThreadScheduledExecutor();
+        idleCheck.scheduleWithFixedDelay(() -> {
+            // An install script running for a long time isn't idle
+            if (inFlight.get() == 0 && System.currentTimeMillis() - lastRequest.get() > idleTimeout.toMillis()) {
+                System.out.println("ssh-mux daemon idle for " + idleTimeout + ", stopping");
+                shutdown();
+            }
+        }, 1, 1, TimeUnit.MINUTES);
+        // Closing the executor waits for the requests still running, so their answers go out before exiting
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            while (server.isOpen()) {
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (IOException e) {
+                    break;
+                }
+                lastRequest.set(System.currentTimeMillis());
+                executor.submit(() -> handle(channel));
+            }
+        } finally {
+            idleCheck.shutdownNow();
+            Files.deleteIfExists(socketPath);
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        inFlight.incrementAndGet();
+        try (channel; InputStream in = Channels.newInputStream(channel); OutputStream out = Channels.newOutputStream(channel)) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            MuxMessage request = OBJECT_MAPPER.readValue(reader.readLine(), MuxMessage.class);
+            MuxMessage response = new MuxMessage(request.getOp());
+            switch (request.getOp()) {
+                case MuxMessage.EXEC -> exec(request, response);
+                case MuxMessage.EXECUTE -> execute(request, response, out);
+                case MuxMessage.UPLOAD -> upload(request, response);
+                case MuxMessage.PING, MuxMessage.STOP -> {
+                }
+                default -> response.setFailure("Unknown op " + request.getOp());
+            }
+            write(out, response);
+            lastRequest.set(System.currentTimeMillis());
+            if (MuxMessage.STOP.equals(request.getOp())) {
+                shutdown();
+            }
+        } catch (Exception e) {
+            System.out.println("ssh-mux request failed: " + e.getMessage());
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void exec(MuxMessage request, MuxMessage response) {
+        try {
+            SSH ssh = new SSH(request.getPrivateKeyPath(), request.getPublicKeyPath(), request.getJumpHost());
+            SSH.CommandResult result = ssh.exec(request.getHost(), request.getPort(), request.getCommand(), request.isSshAgent(), request.getTimeouts());
+            response.setOutput(result.getOutput());
+            response.setError(result.getError());
+            response.setExitCode(result.getExitCode());
+        } catch (RuntimeException e) {
+            response.setFailure(failureMessage(e));
+        }
+    }
+
+    /**
+     * Every line of output is sent to the client as soon as it is complete. The lines are handed to a sender thread
+     * through a bounded queue, so the ssh channel never waits on the socket: when the client reads too slowly lines
+     * are dropped (and counted), if it went away the command still runs to the end and its output is thrown away.
+     */
+    private void execute(MuxMessage request, MuxMessage response, OutputStream out) throws InterruptedException {
+        BlockingQueue<String> lines = new ArrayBlockingQueue<>(OUTPUT_QUEUE_SIZE);
+        AtomicLong droppedLines = new AtomicLong();
+        AtomicBoolean finished = new AtomicBoolean();
+        Thread sender = Thread.ofVirtual().name("ssh-mux-output").start(() -> sendLines(lines, droppedLines, finished, out));
+        RemoteOutput output = new RemoteOutput(request.getHost(), 1, line -> {
+            if (!lines.offer(line)) {
+                droppedLines.incrementAndGet();
+            }
+        });
+        SSH ssh = new SSH(request.getPrivateKeyPath(), request.getPublicKeyPath(), request.getJumpHost());
+        HostResult result = ssh.executeOnHost(request.getHost(), request.getHost(), request.getPort(), request.getCommand(), request.isSshAgent(), request.getTimeouts(), output);
+        // All output goes out before the response which ends the stream
+        finished.set(true);
+        sender.join();
+        response.setStatus(result.getStatus().name());
+        response.setExitCode(result.getExitCode() == null ? -1 : result.getExitCode());
+        response.setError(result.getMessage());
+    }
+
+    private static void sendLines(BlockingQueue<String> lines, AtomicLong droppedLines, AtomicBoolean finished, OutputStream out) {
+        boolean connected = true;
+        while (true) {
+            String line;
+            try {
+                line = lines.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (line == null) {
+                if (finished.get() && lines.isEmpty()) {
+                    return;
+                }
+                continue;
+            }
+            if (!connected) {
+                continue;
+            }
+            try {
+                long dropped = droppedLines.getAndSet(0);
+                if (dropped > 0) {
+                    write(out, outputMessage("... " + dropped + " lines of output skipped, client too slow"));
+                }
+                write(out, outputMessage(line));
+            } catch (IOException e) {
+                connected = false;
+            }
+        }
+    }
+
+    private static MuxMessage outputMessage(String line) {
+        MuxMessage message = new MuxMessage(MuxMessage.OUTPUT);
+        message.setLine(line);
+        return message;
+    }
+
+    private void upload(MuxMessage request, MuxMessage response) {
+        try {
+            SSH ssh = new SSH(request.getPrivateKeyPath(), request.getPublicKeyPath(), request.getJumpHost());
+            Path file = request.getLocalPath() == null ? null : Path.of(request.getLocalPath());
+            response.setRemotePath(ssh.uploadToHost(request.getHost(), request.getHost(), request.getPort(), request.getContent(), file,
+                    request.getSha256(), request.getName(), request.isSshAgent(), request.getTimeouts()));
+        } catch (RuntimeException e) {
+            response.setFailure(failureMessage(e));
+        }
+    }
+
+    /**
+     * Messages are written one per line, the output lines by the sender thread and the response by the request thread
+     */
+    private static void write(OutputStream out, MuxMessage message) throws IOException {
+        byte[] bytes = OBJECT_MAPPER.writeValueAsBytes(message);
+        synchronized (out) {
+            out.write(bytes);
+            out.write('\n');
+            out.flush();
+        }
+    }
+
+    private static String failureMessage(RuntimeException e) {
+        List<String> messages = new ArrayList<>();
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            messages.add(String.valueOf(cause.getMessage()));
+        }
+        return String.join(": ", messages);
+    }
+
+    private void shutdown() {
+        try {
+            server.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
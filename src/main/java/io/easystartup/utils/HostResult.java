@@ -0,0 +1,71 @@
+package io.easystartup.utils;
+
+/*
+ * @author indianBond
+ *
+ * Outcome of running a command on one host as part of a fan out
+ */
+public class HostResult {
+
+    public enum Status {
+        OK,
+        NON_ZERO_EXIT,
+        TIMEOUT,
+        AUTH_FAILED,
+        CONNECT_FAILED,
+        ERROR
+    }
+
+    private final String serverName;
+    private final Status status;
+    private final Integer exitCode;
+    private final String output;
+    private final String message;
+
+    public HostResult(String serverName, Status status, Integer exitCode, String output, String message) {
+        this.serverName = serverName;
+        this.status = status;
+        this.exitCode = exitCode;
+        this.output = output;
+        this.message = message;
+    }
+
+    public String getServerName() {
+        return serverName;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Integer getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * Tail of stdout and stderr
+     */
+    public String getOutput() {
+        return output;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isSuccess() {
+        return status == Status.OK;
+    }
+
+    /**
+     * True when the command did run to the end, whatever its exit code
+     */
+    public boolean isCompleted() {
+        return status == Status.OK || status == Status.NON_ZERO_EXIT;
+    }
+
+    @Override
+    public String toString() {
+        return serverName + ": " + status + (exitCode != null ? " (exit " + exitCode + ")" : "") + (message != null ? " " + message : "");
+    }
+}
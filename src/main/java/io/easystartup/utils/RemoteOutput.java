@@ -0,0 +1,201 @@
+package io.easystartup.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/*
+ * @author indianBond
+ *
+ * Output of a remote command, split into lines as it arrives. Only the last lines are kept per host, so memory stays
+ * the same however long the command runs or however many hosts run it at once.
+ * Live lines are prefixed with the server name and handed to a single console printer through a bounded queue. The
+ * ssh channels never wait on the console: when the queue is full, live lines are dropped (and counted) but they are
+ * still kept in the per host tail.
+ * Stdout is written to this stream and stderr to getErrorStream(), each has its own partial line so lines of the two
+ * never get mixed up when they interleave.
+ */
+public class RemoteOutput extends OutputStream {
+
+    private static final int MAX_LINE_BYTES = 8 * 1024;
+    private static final int CONSOLE_QUEUE_SIZE = 10_000;
+
+    private static final BlockingQueue<String> CONSOLE_QUEUE = new ArrayBlockingQueue<>(CONSOLE_QUEUE_SIZE);
+    private static final AtomicLong DROPPED_LINES = new AtomicLong();
+
+    static {
+        Thread printer = new Thread(RemoteOutput::printLines, "remote-output-printer");
+        printer.setDaemon(true);
+        printer.start();
+    }
+
+    private final String prefix;
+    private final int maxLines;
+    private final boolean live;
+    private final ArrayDeque<String> tail;
+    private final LineStream outputStream = new LineStream();
+    private final LineStream errorStream = new LineStream();
+    private final Consumer<String> lineListener;
+
+    public RemoteOutput(String serverName, int maxLines, boolean live) {
+        this(serverName, maxLines, live, null);
+    }
+
+    /**
+     * Not printed, every line is handed to the listener instead as soon as it is complete (used by the ssh-mux daemon
+     * to pass the output on to the cli)
+     */
+    public RemoteOutput(String serverName, int maxLines, Consumer<String> lineListener) {
+        this(serverName, maxLines, false, lineListener);
+    }
+
+    private RemoteOutput(String serverName, int maxLines, boolean live, Consumer<String> lineListener) {
+        this.prefix = ConsoleColors.CYAN + "[" + serverName + "] " + ConsoleColors.RESET;
+        this.maxLines = maxLines;
+        this.live = live;
+        this.tail = new ArrayDeque<>(maxLines);
+        this.lineListener = lineListener;
+    }
+
+    @Override
+    public void write(int b) {
+        outputStream.write(b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        outputStream.write(bytes, offset, length);
+    }
+
+    /**
+     * Ends the partial lines of both streams
+     */
+    @Override
+    public synchronized void close() {
+        outputStream.close();
+        errorStream.close();
+    }
+
+    /**
+     * Stream for stderr, its lines go to the same tail (and console or listener) as the ones written to this stream
+     */
+    public OutputStream getErrorStream() {
+        return errorStream;
+    }
+
+    public boolean isLive() {
+        return live;
+    }
+
+    /**
+     * Last lines of the output, oldest first
+     */
+    public synchronized List<String> getTail() {
+        return new ArrayList<>(tail);
+    }
+
+    public String getTailAsString() {
+        return String.join("\n", getTail());
+    }
+
+    /**
+     * Waits (a little while at most) for the console printer to catch up, so live output of a finished command shows
+     * before whatever gets printed next
+     */
+    public static void awaitConsole() {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!CONSOLE_QUEUE.isEmpty() && System.currentTimeMillis() < deadline) {
+            Util.sleep(10);
+        }
+    }
+
+    private void addLine(String line) {
+        if (tail.size() == maxLines) {
+            tail.removeFirst();
+        }
+        tail.addLast(line);
+        if (lineListener != null) {
+            lineListener.accept(line);
+        }
+        if (live && !CONSOLE_QUEUE.offer(prefix + line)) {
+            DROPPED_LINES.incrementAndGet();
+        }
+    }
+
+    private class LineStream extends OutputStream {
+
+        private final ByteArrayOutputStream currentLine = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) {
+            synchronized (RemoteOutput.this) {
+                if (b == '\n') {
+                    endLine();
+                } else if (currentLine.size() < MAX_LINE_BYTES) {
+                    currentLine.write(b);
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            synchronized (RemoteOutput.this) {
+                int start = offset;
+                for (int i = offset; i < offset + length; i++) {
+                    if (bytes[i] == '\n') {
+                        appendToLine(bytes, start, i - start);
+                        endLine();
+                        start = i + 1;
+                    }
+                }
+                appendToLine(bytes, start, offset + length - start);
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (RemoteOutput.this) {
+                if (currentLine.size() > 0) {
+                    endLine();
+                }
+            }
+        }
+
+        private void appendToLine(byte[] bytes, int offset, int length) {
+            // Overlong lines (progress bars without newlines ...) are cut, instead of growing without bound
+            int room = MAX_LINE_BYTES - currentLine.size();
+            if (length > 0 && room > 0) {
+                currentLine.write(bytes, offset, Math.min(length, room));
+            }
+        }
+
+        private void endLine() {
+            String line = currentLine.toString(StandardCharsets.UTF_8).stripTrailing();
+            currentLine.reset();
+            addLine(line);
+        }
+    }
+
+    private static void printLines() {
+        while (true) {
+            try {
+                String line = CONSOLE_QUEUE.take();
+                long dropped = DROPPED_LINES.getAndSet(0);
+                if (dropped > 0) {
+                    System.out.println(ConsoleColors.YELLOW + "... " + dropped + " lines of remote output skipped, console too slow" + ConsoleColors.RESET);
+                }
+                System.out.println(line);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -1,91 +1,522 @@
 package io.easystartup.utils;
 
+import io.easystartup.sshmux.MuxMessage;
+import io.easystartup.sshmux.SSHMuxClient;
 import me.tomsdevsn.hetznercloud.objects.general.Server;
 import org.apache.commons.io.IOUtils;
 import org.apache.sshd.client.SshClient;
+import org.apache.sshd.client.channel.ChannelExec;
+import org.apache.sshd.client.channel.ClientChannelEvent;
+import org.apache.sshd.client.future.AuthFuture;
 import org.apache.sshd.client.future.ConnectFuture;
 import org.apache.sshd.client.session.ClientSession;
 import org.apache.sshd.common.config.keys.FilePasswordProvider;
 import org.apache.sshd.common.config.keys.loader.KeyPairResourceLoader;
+import org.apache.sshd.common.util.net.SshdSocketAddress;
 import org.apache.sshd.common.util.security.SecurityUtils;
+import org.apache.sshd.sftp.client.SftpClient;
+import org.apache.sshd.sftp.client.SftpClientFactory;
+import org.apache.sshd.sftp.common.SftpConstants;
+import org.apache.sshd.sftp.common.SftpException;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.rmi.RemoteException;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
-import java.util.Collection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
 /*
  * @author indianBond
+ *
+ * One ssh client per process. Private keys are parsed once, and authenticated sessions are kept per host and port so
+ * that further commands to the same node only open a new channel instead of connecting and doing the key exchange
+ * again. Sessions which are closed or no longer authenticated are replaced, and sessions idle for a while are closed.
  */
 public class SSH {
 
+    private static final String UPLOAD_DIRECTORY = "/root/.k3s-simplified/uploads";
+
+    private static final SshClient CLIENT = startClient();
+    private static final Map<String, Collection<KeyPair>> KEY_PAIRS = new ConcurrentHashMap<>();
+    private static final Map<String, PooledSession> SESSIONS = new ConcurrentHashMap<>();
+    private static final Map<String, JumpHost> JUMP_HOSTS = new ConcurrentHashMap<>();
+    private static volatile Duration idleTimeout = Duration.ofMinutes(2);
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ssh-session-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        EVICTOR.scheduleWithFixedDelay(SSH::evictIdleSessions, 30, 30, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(SSH::closeAll));
+    }
+
     private final String privateKeyPath;
     private final String publicKeyPath;
+    private final String jumpHost;
 
     public SSH(String privateKeyPath, String publicKeyPath) {
+        this(privateKeyPath, publicKeyPath, null);
+    }
+
+    /**
+     * With a jump host ([user@]host[:port], e.g. the access box), nodes are reached on their private ip through it
+     */
+    public SSH(String privateKeyPath, String publicKeyPath, String jumpHost) {
         this.privateKeyPath = privateKeyPath;
         this.publicKeyPath = publicKeyPath;
+        this.jumpHost = isNotBlank(jumpHost) ? jumpHost.trim() : null;
+    }
+
+    public boolean isUsingJumpHost() {
+        return jumpHost != null;
     }
 
     public String ssh(Server server, int port, String command, boolean isSSHAgent, boolean forcePrivateIP) {
+        return ssh(server, port, command, isSSHAgent, forcePrivateIP, Timeouts.COMMAND);
+    }
+
+    /**
+     * A command which doesn't finish in time is reported like a failed one, null is returned
+     */
+    public String ssh(Server server, int port, String command, boolean isSSHAgent, boolean forcePrivateIP, Timeouts timeouts) {
+        String host = resolveHost(server, forcePrivateIP);
+        // With ssh_mux set, the daemon has warm sessions, possibly from an earlier run
+        MuxMessage request = muxRequest(MuxMessage.EXEC, host, port, isSSHAgent, timeouts);
+        request.setCommand(command);
+        CommandResult result = SSHMuxClient.exec(request);
+        if (result == null) {
+            result = exec(host, port, command, isSSHAgent, timeouts);
+        }
+        if (!result.isSuccess()) {
+            System.out.println("Error " + result.getError());
+            return null;
+        }
+        return result.getOutput();
+    }
+
+    /**
+     * Runs the command on an already resolved host (see ssh), keeping stdout and stderr apart. A command still running
+     * at the command deadline is closed and gets TIMED_OUT_EXIT_CODE. Only throws when the command could not be run at
+     * all.
+     */
+    public CommandResult exec(String host, int port, String command, boolean isSSHAgent, Timeouts timeouts) {
+        PooledSession pooledSession = pooledSession(host, port, isSSHAgent);
+        ByteArrayOutputStream responseStream = new ByteArrayOutputStream();
+        ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
+        ClientSession session = null;
+        try {
+            session = pooledSession.acquire(timeouts);
+            try (ChannelExec channel = session.createExecChannel(command)) {
+                channel.setOut(responseStream);
+                channel.setErr(errorStream);
+                channel.open().verify(timeouts.getConnect());
+                Set<ClientChannelEvent> events = channel.waitFor(EnumSet.of(ClientChannelEvent.CLOSED), timeouts.getCommand().toMillis());
+                if (events.contains(ClientChannelEvent.TIMEOUT)) {
+                    channel.close(true);
+                    return new CommandResult(host, responseStream.toString(StandardCharsets.UTF_8).trim(),
+                            "command did not finish within " + timeouts.getCommand(), CommandResult.TIMED_OUT_EXIT_CODE);
+                }
+                Integer exitStatus = channel.getExitStatus();
+                return new CommandResult(host, responseStream.toString(StandardCharsets.UTF_8).trim(), errorStream.toString(StandardCharsets.UTF_8),
+                        exitStatus == null ? -1 : exitStatus);
+            }
+        } catch (IOException e) {
+            // Not retried here as the command may already have run, but the next command gets a fresh session
+            if (session != null) {
+                pooledSession.invalidate(session);
+            }
+            System.out.println("Error " + errorStream.toString(StandardCharsets.UTF_8));
+            throw new RuntimeException("SSH command execution failed", e);
+        } finally {
+            if (session != null) {
+                pooledSession.release();
+            }
+        }
+    }
+
+    /**
+     * Sessions unused for this long are closed, the ssh-mux daemon keeps them much longer
+     */
+    public static void setIdleTimeout(Duration idleTimeout) {
+        SSH.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Like ssh, but stdout and stderr are read line by line while the command runs: only the last maxLines lines are
+     * kept, and with live they are also printed as they come, prefixed with the server name. The returned result has
+     * the kept lines as output.
+     */
+    public CommandResult sshStreaming(Server server, int port, String command, boolean isSSHAgent, boolean forcePrivateIP, int maxLines, boolean live) {
+        RemoteOutput output = new RemoteOutput(server.getName(), maxLines, live);
+        return toCommandResult(execute(server, port, command, isSSHAgent, forcePrivateIP, Timeouts.DEFAULT, output));
+    }
+
+    /**
+     * Runs the command with a deadline for each phase (connect, auth, command). Never throws: whatever goes wrong is
+     * reported in the status of the result, so one bad host can't hold up or fail the others in a fan out.
+     */
+    public HostResult execute(Server server, int port, String command, boolean isSSHAgent, boolean forcePrivateIP, Timeouts timeouts, RemoteOutput output) {
+        String host = resolveHost(server, forcePrivateIP);
+        MuxMessage request = muxRequest(MuxMessage.EXECUTE, host, port, isSSHAgent, timeouts);
+        request.setCommand(command);
+        HostResult result = SSHMuxClient.execute(server.getName(), request, output);
+        return result != null ? result : executeOnHost(server.getName(), host, port, command, isSSHAgent, timeouts, output);
+    }
+
+    /**
+     * Same as execute, on an already resolved host. The name is only used in the result.
+     */
+    public HostResult executeOnHost(String name, String host, int port, String command, boolean isSSHAgent, Timeouts timeouts, RemoteOutput output) {
+        PooledSession pooledSession = pooledSession(host, port, isSSHAgent);
+        ClientSession session = null;
+        try {
+            session = pooledSession.acquire(timeouts);
+            try (ChannelExec channel = session.createExecChannel(command)) {
+                channel.setOut(output);
+                channel.setErr(output.getErrorStream());
+                channel.open().verify(timeouts.getConnect());
+                Set<ClientChannelEvent> events = channel.waitFor(EnumSet.of(ClientChannelEvent.CLOSED), timeouts.getCommand().toMillis());
+                output.close();
+                if (events.contains(ClientChannelEvent.TIMEOUT)) {
+                    channel.close(true);
+                    return new HostResult(name, HostResult.Status.TIMEOUT, null, output.getTailAsString(),
+                            "command did not finish within " + timeouts.getCommand());
+                }
+                Integer exitStatus = channel.getExitStatus();
+                int exitCode = exitStatus == null ? -1 : exitStatus;
+                return new HostResult(name, exitCode == 0 ? HostResult.Status.OK : HostResult.Status.NON_ZERO_EXIT,
+                        exitCode, output.getTailAsString(), null);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (session != null) {
+                pooledSession.invalidate(session);
+            }
+            return failure(name, e, output);
+        } finally {
+            if (session != null) {
+                pooledSession.release();
+            }
+            if (output.isLive()) {
+                RemoteOutput.awaitConsole();
+            }
+        }
+    }
+
+    /**
+     * Uploads the script (see upload) and runs it by path, within the same deadlines as execute
+     */
+    public HostResult executeScript(Server server, int port, String script, String name, boolean isSSHAgent, boolean forcePrivateIP, Timeouts timeouts, RemoteOutput output) {
+        String remotePath;
+        try {
+            byte[] content = script.getBytes(StandardCharsets.UTF_8);
+            remotePath = upload(server, port, content, null, sha256(content), name, isSSHAgent, forcePrivateIP, timeouts);
+        } catch (RuntimeException e) {
+            return failure(server.getName(), e, output);
+        }
+        return execute(server, port, "bash " + remotePath, isSSHAgent, forcePrivateIP, timeouts, output);
+    }
+
+    /**
+     * Runs the task for every server, at most concurrency of them at a time, and returns the results by server name
+     * in the order of the servers. A stalled host only holds its own slot until its deadlines expire.
+     */
+    public static Map<String, HostResult> fanOut(Collection<Server> servers, int concurrency, Function<Server, HostResult> task) {
+        Semaphore slots = new Semaphore(concurrency);
+        Map<String, Future<HostResult>> futures = new LinkedHashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Server server : servers) {
+                futures.put(server.getName(), executor.submit(() -> {
+                    slots.acquire();
+                    try {
+                        return task.apply(server);
+                    } finally {
+                        slots.release();
+                    }
+                }));
+            }
+            Map<String, HostResult> results = new LinkedHashMap<>();
+            for (Map.Entry<String, Future<HostResult>> entry : futures.entrySet()) {
+                try {
+                    results.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException e) {
+                    results.put(entry.getKey(), new HostResult(entry.getKey(), HostResult.Status.ERROR, null, "", String.valueOf(e.getCause())));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+            return results;
+        }
+    }
+
+    private static HostResult failure(String name, Throwable e, RemoteOutput output) {
+        output.close();
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof PhaseException phaseException) {
+                return new HostResult(name, phaseException.getStatus(), null, output.getTailAsString(), phaseException.getMessage());
+            }
+        }
+        return new HostResult(name, HostResult.Status.ERROR, null, output.getTailAsString(), String.valueOf(e));
+    }
+
+    private static CommandResult toCommandResult(HostResult result) {
+        if (!result.isCompleted()) {
+            throw new RuntimeException("SSH command execution failed on " + result + "\n" + result.getOutput());
+        }
+        return new CommandResult(result.getServerName(), result.getOutput(), "", result.getExitCode());
+    }
+
+    /**
+     * Uploads the content over sftp to a file named after its sha-256 and returns the remote path. If that file is
+     * already there (e.g. a re-run with the same rendered script) nothing is sent. The file is written under a
+     * temporary name and renamed once complete, so a broken upload is never taken for a finished one.
+     */
+    public String upload(Server server, int port, byte[] content, String name, boolean isSSHAgent, boolean forcePrivateIP) {
+        return upload(server, port, content, null, sha256(content), name, isSSHAgent, forcePrivateIP, Timeouts.DEFAULT);
+    }
+
+    /**
+     * Same as upload of bytes, but streams the local file (hashed and sent in chunks, never loaded in memory)
+     */
+    public String upload(Server server, int port, Path file, boolean isSSHAgent, boolean forcePrivateIP) {
+        return upload(server, port, null, file, sha256(file), file.getFileName().toString(), isSSHAgent, forcePrivateIP, Timeouts.DEFAULT);
+    }
+
+    /**
+     * Uploads the script and runs it from its remote path, instead of sending the whole script as the command
+     */
+    public CommandResult sshScript(Server server, int port, String script, String name, boolean isSSHAgent, boolean forcePrivateIP, int maxLines, boolean live) {
+        RemoteOutput output = new RemoteOutput(server.getName(), maxLines, live);
+        return toCommandResult(executeScript(server, port, script, name, isSSHAgent, forcePrivateIP, Timeouts.DEFAULT, output));
+    }
+
+    /**
+     * Either content or file is set
+     */
+    private String upload(Server server, int port, byte[] content, Path file, String sha256, String name, boolean isSSHAgent, boolean forcePrivateIP, Timeouts timeouts) {
+        String host = resolveHost(server, forcePrivateIP);
+        MuxMessage request = muxRequest(MuxMessage.UPLOAD, host, port, isSSHAgent, timeouts);
+        request.setContent(content);
+        request.setLocalPath(file == null ? null : file.toAbsolutePath().toString());
+        request.setSha256(sha256);
+        request.setName(name);
+        String remotePath = SSHMuxClient.upload(request);
+        return remotePath != null ? remotePath : uploadToHost(server.getName(), host, port, content, file, sha256, name, isSSHAgent, timeouts);
+    }
+
+    /**
+     * Same as upload, on an already resolved host
+     */
+    public String uploadToHost(String serverName, String host, int port, byte[] content, Path file, String sha256, String name, boolean isSSHAgent, Timeouts timeouts) {
+        InputStreamSupplier contentSupplier = content != null ? () -> new ByteArrayInputStream(content) : () -> Files.newInputStream(file);
+        String remotePath = UPLOAD_DIRECTORY + "/" + sha256 + "-" + name;
+        PooledSession pooledSession = pooledSession(host, port, isSSHAgent);
+        ClientSession session = null;
+        try {
+            session = pooledSession.acquire(timeouts);
+            try (SftpClient sftp = SftpClientFactory.instance().createSftpClient(session)) {
+                if (exists(sftp, remotePath)) {
+                    return remotePath;
+                }
+                mkdirs(sftp, UPLOAD_DIRECTORY);
+                String tempPath = remotePath + "." + UUID.randomUUID() + ".tmp";
+                try (InputStream in = contentSupplier.get();
+                     OutputStream out = sftp.write(tempPath, SftpClient.OpenMode.Write, SftpClient.OpenMode.Create, SftpClient.OpenMode.Truncate)) {
+                    in.transferTo(out);
+                }
+                // Scripts contain the k3s token
+                sftp.setStat(tempPath, new SftpClient.Attributes().perms(0700));
+                try {
+                    sftp.rename(tempPath, remotePath);
+                } catch (SftpException e) {
+                    // Uploaded by someone else in the meantime
+                    sftp.remove(tempPath);
+                    if (!exists(sftp, remotePath)) {
+                        throw e;
+                    }
+                }
+                return remotePath;
+            }
+        } catch (IOException e) {
+            if (session != null) {
+                pooledSession.invalidate(session);
+            }
+            throw new RuntimeException("SFTP upload of " + name + " to " + serverName + " failed", e);
+        } finally {
+            if (session != null) {
+                pooledSession.release();
+            }
+        }
+    }
+
+    private static boolean exists(SftpClient sftp, String path) throws IOException {
+        try {
+            sftp.stat(path);
+            return true;
+        } catch (SftpException e) {
+            if (e.getStatus() == SftpConstants.SSH_FX_NO_SUCH_FILE) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private static void mkdirs(SftpClient sftp, String directory) throws IOException {
+        StringBuilder path = new StringBuilder();
+        for (String part : directory.substring(1).split("/")) {
+            path.append("/").append(part);
+            if (!exists(sftp, path.toString())) {
+                sftp.mkdir(path.toString());
+            }
+        }
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String sha256(Path file) {
+        try (InputStream in = Files.newInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            for (int read; (read = in.read(buffer)) != -1; ) {
+                digest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private interface InputStreamSupplier {
+        InputStream get() throws IOException;
+    }
+
+    /**
+     * Runs several named commands, one after the other, in a single exec channel and returns the result of each by
+     * name (in the order given). Every command runs in its own shell, so one failing doesn't stop the next ones.
+     * Each result is framed by a random marker line with its index and exit code, followed by base64 encoded stdout
+     * and stderr, so command output can never be mistaken for a frame.
+     */
+    public Map<String, CommandResult> sshBatch(Server server, int port, Map<String, String> commands, boolean isSSHAgent, boolean forcePrivateIP) {
+        List<String> names = new ArrayList<>(commands.keySet());
+        String marker = "__BATCH_" + UUID.randomUUID().toString().replace("-", "");
+        StringBuilder script = new StringBuilder("d=$(mktemp -d)\n");
+        for (int index = 0; index < names.size(); index++) {
+            String encodedCommand = Base64.getEncoder().encodeToString(commands.get(names.get(index)).getBytes(StandardCharsets.UTF_8));
+            script.append("printf '%s' '").append(encodedCommand).append("' | base64 -d > \"$d/c\"\n")
+                    .append("\"${SHELL:-/bin/sh}\" \"$d/c\" > \"$d/o\" 2> \"$d/e\" < /dev/null; c=$?\n")
+                    .append("printf '\\n%s %s %s\\n' '").append(marker).append("' ").append(index).append(" \"$c\"\n")
+                    .append("base64 -w0 \"$d/o\"; printf '\\n'; base64 -w0 \"$d/e\"; printf '\\n'\n");
+        }
+        script.append("rm -rf \"$d\"\n");
+
+        String output = ssh(server, port, script.toString(), isSSHAgent, forcePrivateIP);
+        if (output == null) {
+            throw new RuntimeException("SSH batch execution failed on " + server.getName());
+        }
+        Map<String, CommandResult> results = new LinkedHashMap<>();
+        String[] lines = output.split("\n", -1);
+        for (int i = 0; i < lines.length; i++) {
+            if (!lines[i].startsWith(marker + " ")) {
+                continue;
+            }
+            String[] frame = lines[i].split(" ");
+            String name = names.get(Integer.parseInt(frame[1]));
+            // Empty trailing stdout/stderr lines are lost to the trim of the output
+            results.put(name, new CommandResult(name, decode(lines, i + 1), decode(lines, i + 2), Integer.parseInt(frame[2])));
+            i += 2;
+        }
+        if (results.size() != names.size()) {
+            throw new RuntimeException("SSH batch on " + server.getName() + " returned " + results.size() + " of " + names.size() + " results");
+        }
+        return results;
+    }
+
+    private static String decode(String[] lines, int index) {
+        String base64 = index < lines.length ? lines[index].trim() : "";
+        return new String(Base64.getMimeDecoder().decode(base64), StandardCharsets.UTF_8).trim();
+    }
+
+    private String resolveHost(Server server, boolean forcePrivateIP) {
+        // Behind the jump host the nodes are always reached on their private ip
+        return getHostIPAdress(server, jumpHost != null || forcePrivateIP);
+    }
+
+    private MuxMessage muxRequest(String op, String host, int port, boolean isSSHAgent, Timeouts timeouts) {
+        MuxMessage request = new MuxMessage(op);
+        request.setHost(host);
+        request.setPort(port);
+        request.setPrivateKeyPath(privateKeyPath);
+        request.setPublicKeyPath(publicKeyPath);
+        request.setJumpHost(jumpHost);
+        request.setSshAgent(isSSHAgent);
+        request.setTimeouts(timeouts);
+        return request;
+    }
+
+    private PooledSession pooledSession(String host, int port, boolean isSSHAgent) {
+        String keyPath = isSSHAgent ? null : privateKeyPath;
+        if (jumpHost == null) {
+            return SESSIONS.computeIfAbsent(sessionKey(host, port, isSSHAgent), key -> new PooledSession("root", host, port, keyPath, null));
+        }
+        JumpHost via = JUMP_HOSTS.computeIfAbsent(jumpHost + (isSSHAgent ? ":agent" : ""), key -> new JumpHost(jumpHost, port, keyPath));
+        return SESSIONS.computeIfAbsent(jumpHost + "->" + sessionKey(host, port, isSSHAgent), key -> new PooledSession("root", host, port, keyPath, via));
+    }
+
+    private static SshClient startClient() {
         SshClient client = SshClient.setUpDefaultClient();
         client.setServerKeyVerifier((clientSession, socketAddress, publicKey) -> {
             // To skip known hosts check
             return true;
         });
-        if (!isSSHAgent) {
+        client.start();
+        return client;
+    }
+
+    private static Collection<KeyPair> keyPairs(String privateKeyPath) {
+        return KEY_PAIRS.computeIfAbsent(privateKeyPath, path -> {
             FilePasswordProvider provider = FilePasswordProvider.EMPTY;
             KeyPairResourceLoader loader = SecurityUtils.getKeyPairResourceParser();
-            Collection<KeyPair> keys = null;
             try {
-                keys = loader.loadKeyPairs(null, Path.of(privateKeyPath), provider);
+                return loader.loadKeyPairs(null, Path.of(path), provider);
             } catch (GeneralSecurityException | IOException e) {
                 throw new RuntimeException(e);
             }
+        });
+    }
 
-            for (KeyPair key : keys) {
-                client.addPublicKeyIdentity(key);
-            }
-        }
-        client.start();
+    private static String sessionKey(String host, int port, boolean isSSHAgent) {
+        return host + ":" + port + (isSSHAgent ? ":agent" : "");
+    }
 
-        ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
-        try (ClientSession session = openSession(client, getHostIPAdress(server, forcePrivateIP), port)) {
-            try (ByteArrayOutputStream responseStream = new ByteArrayOutputStream()) {
-                session.executeRemoteCommand(command, responseStream, errorStream, StandardCharsets.UTF_8);
-                return new String(responseStream.toByteArray()).trim();
-            }
-        } catch (RemoteException remoteException) {
-            if (errorStream != null) {
-                System.out.println("Error " + new String(errorStream.toByteArray()));
-            }
-            return null;
-        } catch (IOException e) {
-            if (errorStream != null) {
-                System.out.println("Error " + new String(errorStream.toByteArray()));
-            }
-            throw new RuntimeException("SSH command execution failed", e);
-        } finally {
-            IOUtils.closeQuietly(errorStream);
-            client.stop();
-        }
+    private static void evictIdleSessions() {
+        SESSIONS.values().forEach(PooledSession::closeIfIdle);
     }
 
-    private ClientSession openSession(SshClient client, String host, int port) throws IOException {
-        ConnectFuture connectFuture = client.connect("root", host, port);
-        connectFuture.await(); // Optionally, you can add a timeout value here
-        ClientSession session = connectFuture.getSession();
-        session.auth().verify(); // Optionally, you can add a timeout value here
-        return session;
+    private static void closeAll() {
+        SESSIONS.values().forEach(PooledSession::close);
+        JUMP_HOSTS.values().forEach(JumpHost::close);
+        CLIENT.stop();
     }
 
-    private String getHostIPAdress(Server server, boolean forcePrivate) {
+    static String getHostIPAdress(Server server, boolean forcePrivate) {
         if (forcePrivate){
             return server.getPrivateNet().get(0).getIp();
         }
@@ -94,4 +525,307 @@ public class SSH {
         }
         return server.getPrivateNet().get(0).getIp();
     }
+
+    /**
+     * One authenticated session to the bastion, kept for the whole run. Every node gets a local port forwarded to it
+     * over that session, so all node sessions are direct-tcpip channels multiplexed over the one transport and the
+     * bastion handshake happens only once.
+     */
+    private static class JumpHost {
+
+        private final PooledSession outer;
+        private final Map<String, SshdSocketAddress> forwards = new HashMap<>();
+        private ClientSession forwardedOver;
+
+        JumpHost(String spec, int defaultPort, String privateKeyPath) {
+            String user = "root";
+            String hostAndPort = spec;
+            if (spec.contains("@")) {
+                user = spec.substring(0, spec.indexOf('@'));
+                hostAndPort = spec.substring(spec.indexOf('@') + 1);
+            }
+            int port = defaultPort;
+            String host = hostAndPort;
+            if (hostAndPort.contains(":")) {
+                host = hostAndPort.substring(0, hostAndPort.lastIndexOf(':'));
+                port = Integer.parseInt(hostAndPort.substring(hostAndPort.lastIndexOf(':') + 1));
+            }
+            // Not in SESSIONS, so it is never closed as idle while node sessions still run over it
+            this.outer = new PooledSession(user, host, port, privateKeyPath, null);
+        }
+
+        SshdSocketAddress forward(String host, int port, Timeouts timeouts) throws IOException {
+            // Connecting to the bastion is bounded by the caller's own deadlines, only setting up the forward is locked
+            ClientSession session = outer.acquire(timeouts);
+            try {
+                synchronized (this) {
+                    if (session != forwardedOver) {
+                        // Reconnected to the bastion, the forwards of the old session went with it
+                        forwards.clear();
+                        forwardedOver = session;
+                    }
+                    String target = host + ":" + port;
+                    SshdSocketAddress local = forwards.get(target);
+                    if (local == null) {
+                        local = session.startLocalPortForwarding(new SshdSocketAddress("127.0.0.1", 0), new SshdSocketAddress(host, port));
+                        forwards.put(target, local);
+                    }
+                    return local;
+                }
+            } finally {
+                outer.release();
+            }
+        }
+
+        synchronized void close() {
+            outer.close();
+            forwards.clear();
+        }
+    }
+
+    /**
+     * Deadlines for connecting, authenticating and running the command. A zero command timeout means no limit.
+     */
+    public static class Timeouts {
+
+        public static final Timeouts DEFAULT = new Timeouts(Duration.ofSeconds(30), Duration.ofSeconds(30), Duration.ZERO);
+
+        // Plain commands (probes, reading the token or kubeconfig, small setup scripts) never wait forever
+        public static final Timeouts COMMAND = new Timeouts(Duration.ofSeconds(30), Duration.ofSeconds(30), Duration.ofMinutes(10));
+
+        private final Duration connect;
+        private final Duration auth;
+        private final Duration command;
+
+        public Timeouts(Duration connect, Duration auth, Duration command) {
+            this.connect = connect;
+            this.auth = auth;
+            this.command = command;
+        }
+
+        public Duration getConnect() {
+            return connect;
+        }
+
+        public Duration getAuth() {
+            return auth;
+        }
+
+        public Duration getCommand() {
+            return command;
+        }
+    }
+
+    /**
+     * Failure while getting a session, with the status it maps to
+     */
+    private static class PhaseException extends IOException {
+
+        private final HostResult.Status status;
+
+        PhaseException(HostResult.Status status, String message) {
+            this(status, message, null);
+        }
+
+        PhaseException(HostResult.Status status, String message, Throwable cause) {
+            super(message, cause);
+            this.status = status;
+        }
+
+        HostResult.Status getStatus() {
+            return status;
+        }
+    }
+
+    public static class CommandResult {
+
+        // Same as timeout(1)
+        public static final int TIMED_OUT_EXIT_CODE = 124;
+
+        private final String name;
+        private final String output;
+        private final String error;
+        private final int exitCode;
+
+        public CommandResult(String name, String output, String error, int exitCode) {
+            this.name = name;
+            this.output = output;
+            this.error = error;
+            this.exitCode = exitCode;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getOutput() {
+            return output;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+
+        public boolean isSuccess() {
+            return exitCode == 0;
+        }
+    }
+
+    /**
+     * Authenticated session to one host, shared by all threads running commands on it (each command gets its own
+     * channel on the session)
+     */
+    private static class PooledSession {
+
+        private final String user;
+        private final String host;
+        private final int port;
+        private final String privateKeyPath;
+        private final JumpHost via;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private ClientSession session;
+        // Set while one caller connects, the others wait on it instead of connecting too
+        private CompletableFuture<ClientSession> opening;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        PooledSession(String user, String host, int port, String privateKeyPath, JumpHost via) {
+            this.user = user;
+            this.host = host;
+            this.port = port;
+            this.privateKeyPath = privateKeyPath;
+            this.via = via;
+        }
+
+        /**
+         * The session is opened outside the lock, so a caller waiting on someone else's connect is held no longer than
+         * its own connect and auth deadlines
+         */
+        ClientSession acquire(Timeouts timeouts) throws IOException {
+            CompletableFuture<ClientSession> pending;
+            boolean opener = false;
+            synchronized (this) {
+                if (isHealthy(session)) {
+                    return use(session);
+                }
+                if (opening == null) {
+                    closeQuietly();
+                    opening = new CompletableFuture<>();
+                    opener = true;
+                }
+                pending = opening;
+            }
+            if (opener) {
+                try {
+                    ClientSession opened = openSession(timeouts);
+                    synchronized (this) {
+                        session = opened;
+                        opening = null;
+                        pending.complete(opened);
+                        return use(opened);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    synchronized (this) {
+                        opening = null;
+                    }
+                    pending.completeExceptionally(e);
+                    throw e;
+                }
+            }
+
+            Duration wait = timeouts.getConnect().plus(timeouts.getAuth());
+            try {
+                pending.get(wait.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                throw new PhaseException(HostResult.Status.TIMEOUT, "connect to " + host + ":" + port + " did not finish within " + wait);
+            } catch (ExecutionException e) {
+                HostResult.Status status = e.getCause() instanceof PhaseException phaseException ? phaseException.getStatus() : HostResult.Status.CONNECT_FAILED;
+                throw new PhaseException(status, "unable to open a session to " + host + ":" + port, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            synchronized (this) {
+                if (!isHealthy(session)) {
+                    throw new PhaseException(HostResult.Status.CONNECT_FAILED, "session to " + host + ":" + port + " closed right after connecting");
+                }
+                return use(session);
+            }
+        }
+
+        private ClientSession use(ClientSession clientSession) {
+            inFlight.incrementAndGet();
+            lastUsed = System.currentTimeMillis();
+            return clientSession;
+        }
+
+        void release() {
+            lastUsed = System.currentTimeMillis();
+            inFlight.decrementAndGet();
+        }
+
+        synchronized void invalidate(ClientSession failed) {
+            if (failed == session && !isHealthy(failed)) {
+                closeQuietly();
+            }
+        }
+
+        synchronized void closeIfIdle() {
+            if (session != null && inFlight.get() == 0 && System.currentTimeMillis() - lastUsed > idleTimeout.toMillis()) {
+                closeQuietly();
+            }
+        }
+
+        synchronized void close() {
+            closeQuietly();
+        }
+
+        private ClientSession openSession(Timeouts timeouts) throws IOException {
+            ConnectFuture connectFuture;
+            if (via != null) {
+                SshdSocketAddress tunnel = via.forward(host, port, timeouts);
+                connectFuture = CLIENT.connect(user, tunnel.getHostName(), tunnel.getPort());
+            } else {
+                connectFuture = CLIENT.connect(user, host, port);
+            }
+            if (!connectFuture.await(timeouts.getConnect())) {
+                connectFuture.cancel();
+                throw new PhaseException(HostResult.Status.TIMEOUT, "connect to " + host + ":" + port + " did not finish within " + timeouts.getConnect());
+            }
+            if (!connectFuture.isConnected()) {
+                throw new PhaseException(HostResult.Status.CONNECT_FAILED, "unable to connect to " + host + ":" + port, connectFuture.getException());
+            }
+            ClientSession clientSession = connectFuture.getSession();
+            try {
+                if (privateKeyPath != null) {
+                    keyPairs(privateKeyPath).forEach(clientSession::addPublicKeyIdentity);
+                }
+                AuthFuture authFuture = clientSession.auth();
+                if (!authFuture.await(timeouts.getAuth())) {
+                    throw new PhaseException(HostResult.Status.TIMEOUT, "auth on " + host + " did not finish within " + timeouts.getAuth());
+                }
+                if (!authFuture.isSuccess()) {
+                    throw new PhaseException(HostResult.Status.AUTH_FAILED, "auth on " + host + " failed", authFuture.getException());
+                }
+                return clientSession;
+            } catch (IOException | RuntimeException e) {
+                IOUtils.closeQuietly(clientSession);
+                throw e;
+            }
+        }
+
+        private static boolean isHealthy(ClientSession session) {
+            return session != null && session.isOpen() && !session.isClosing() && session.isAuthenticated();
+        }
+
+        private void closeQuietly() {
+            if (session != null) {
+                IOUtils.closeQuietly(session);
+                session = null;
+            }
+        }
+    }
 }
@@ -3,37 +3,121 @@ package io.easystartup.utils;
 import io.easystartup.configuration.MainSettings;
 import me.tomsdevsn.hetznercloud.objects.general.Server;
 
-import java.util.concurrent.TimeUnit;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 
 /*
  * @author indianBond
+ *
+ * Waits for servers to accept ssh, all of them at the same time. Until a server answers a plain tcp connect with an
+ * ssh banner it is only probed with that (backing off exponentially), and only then is a full ssh login tried, with a
+ * cap on how many logins are in flight at once.
  */
 public class ServerUtils {
 
+    private static final long TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(4);
+    private static final int PROBE_TIMEOUT_MILLIS = 2_000;
+    private static final long MIN_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 8_000;
+    private static final Semaphore HANDSHAKES = new Semaphore(20);
+    // A login which hangs half way counts as a failed probe, the server is tried again after the backoff
+    private static final SSH.Timeouts LOGIN_PROBE_TIMEOUTS = new SSH.Timeouts(Duration.ofSeconds(10), Duration.ofSeconds(10), Duration.ofSeconds(10));
+    private static final ExecutorService VIRTUAL_THREAD_PER_TASK_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
     public static void waitForServerToComeUp(Server server, SSH ssh, MainSettings mainSettings, boolean forcePrivateIP) {
-        System.out.println("Waiting for successful SSH connectivity with server " + server.getName() + "...");
+        waitForServersToComeUp(List.of(server), ssh, mainSettings, forcePrivateIP);
+    }
 
-        long tic = System.currentTimeMillis();
-        while (true) {
-            try {
-                TimeUnit.SECONDS.sleep(1); // Waiting 1 second before retry
+    public static void waitForServersToComeUp(Collection<Server> servers, SSH ssh, MainSettings mainSettings, boolean forcePrivateIP) {
+        waitForServersToComeUp(servers, ssh, mainSettings, forcePrivateIP, server -> {
+        });
+    }
 
-                // Implement a timeout mechanism here if necessary
-                String result = ssh.ssh(server, mainSettings.getSshPort(), "echo ready", mainSettings.isUseSSHAgent(), forcePrivateIP);
+    /**
+     * Returns once every server is up, onReady is called for each server as soon as it is (from the probing thread)
+     */
+    public static void waitForServersToComeUp(Collection<Server> servers, SSH ssh, MainSettings mainSettings, boolean forcePrivateIP, Consumer<Server> onReady) {
+        List<Future<?>> futures = new ArrayList<>();
+        for (Server server : servers) {
+            futures.add(VIRTUAL_THREAD_PER_TASK_EXECUTOR.submit(() -> {
+                waitUntilUp(server, ssh, mainSettings, forcePrivateIP);
+                onReady.accept(server);
+            }));
+        }
+        List<String> failed = new ArrayList<>();
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                failed.add(e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        if (!failed.isEmpty()) {
+            throw new RuntimeException(String.join("\n", failed));
+        }
+    }
 
-                if ("ready".equals(result.trim())) {
-                    break; // Break the loop if the expected result is achieved
-                }
-            } catch (Throwable throwable) {
-                long tac = System.currentTimeMillis();
-                if ((tac - tic) > TimeUnit.MINUTES.toMillis(4)) {
-                    System.out.println("facing issue while connecting to " + server.getName());
-                    throwable.printStackTrace();
-                    throw new RuntimeException(throwable);
+    private static void waitUntilUp(Server server, SSH ssh, MainSettings mainSettings, boolean forcePrivateIP) {
+        System.out.println("Waiting for successful SSH connectivity with server " + server.getName() + "...");
+        String host = SSH.getHostIPAdress(server, forcePrivateIP);
+        long tic = System.currentTimeMillis();
+        long backoff = MIN_BACKOFF_MILLIS;
+        Throwable lastError = null;
+        while (System.currentTimeMillis() - tic < TIMEOUT_MILLIS) {
+            // Cheap check first, logging in while sshd isn't even listening yet only costs a handshake slot. Behind a
+            // jump host the node can't be reached directly, there the login through the jump host is the probe
+            if (ssh.isUsingJumpHost() || hasSshBanner(host, mainSettings.getSshPort())) {
+                try {
+                    HANDSHAKES.acquire();
+                    try {
+                        String result = ssh.ssh(server, mainSettings.getSshPort(), "echo ready", mainSettings.isUseSSHAgent(), forcePrivateIP, LOGIN_PROBE_TIMEOUTS);
+                        if (result != null && "ready".equals(result.trim())) {
+                            System.out.println("...server " + server.getName() + " is now up.");
+                            return;
+                        }
+                    } finally {
+                        HANDSHAKES.release();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } catch (Throwable throwable) {
+                    // cloud-init may still be setting up the user or keys
+                    lastError = throwable;
                 }
             }
+            Util.sleep(backoff);
+            backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+        }
+        System.out.println("facing issue while connecting to " + server.getName());
+        if (lastError != null) {
+            lastError.printStackTrace();
         }
+        throw new RuntimeException("Timed out waiting for SSH on server " + server.getName(), lastError);
+    }
 
-        System.out.println("...server " + server.getName() + " is now up.");
+    private static boolean hasSshBanner(String host, int port) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), PROBE_TIMEOUT_MILLIS);
+            socket.setSoTimeout(PROBE_TIMEOUT_MILLIS);
+            InputStream in = socket.getInputStream();
+            byte[] banner = new byte[4];
+            int read = in.readNBytes(banner, 0, banner.length);
+            return read == banner.length && "SSH-".equals(new String(banner, StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            return false;
+        }
     }
 }
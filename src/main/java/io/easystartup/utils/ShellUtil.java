@@ -1,45 +1,150 @@
 package io.easystartup.utils;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
 
 /*
  * @author indianBond
+ *
+ * Runs local shell scripts. Each run gets its own script file, so concurrent runs don't see each other's scripts, and
+ * stdout and stderr are read at the same time, so a chatty stderr can't block the process on a full pipe.
  */
 public class ShellUtil {
 
-    public static ShellResult run(String command, String kubeconfigPath, String hetznerToken)  {
-        String cmdFilePath = "/tmp/cli.cmd";
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(5);
+    // Same as coreutils timeout(1)
+    public static final int TIMED_OUT_STATUS = 124;
+
+    private static final ExecutorService VIRTUAL_THREAD_PER_TASK_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    public static ShellResult run(String command, String kubeconfigPath, String hetznerToken) {
+        return run(command, kubeconfigPath, hetznerToken, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * On timeout the process is killed and the result has status {@link #TIMED_OUT_STATUS}
+     */
+    public static ShellResult run(String command, String kubeconfigPath, String hetznerToken, Duration timeout) {
+        Path script;
         try {
-            writeFile(cmdFilePath, "#!/bin/bash\nset -euo pipefail\n" + command, false);
+            script = Files.createTempFile("k3s-simplified-", ".sh", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            Files.writeString(script, "#!/bin/bash\nset -euo pipefail\n" + command);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        new File(cmdFilePath).setExecutable(true);
+        try {
+            ProcessBuilder builder = new ProcessBuilder("bash", script.toString());
+            Map<String, String> env = builder.environment();
+            env.put("KUBECONFIG", kubeconfigPath);
+            env.put("HCLOUD_TOKEN", hetznerToken);
+            return run(builder, timeout);
+        } finally {
+            try {
+                Files.deleteIfExists(script);
+            } catch (IOException ignored) {
+            }
+        }
+    }
 
-        ProcessBuilder builder = new ProcessBuilder("bash", "-c", cmdFilePath);
-        Map<String, String> env = builder.environment();
-        env.put("KUBECONFIG", kubeconfigPath);
-        env.put("HCLOUD_TOKEN", hetznerToken);
+    /**
+     * Runs the commands concurrently, results are in the order of the commands
+     */
+    public static List<ShellResult> runAll(List<String> commands, String kubeconfigPath, String hetznerToken) {
+        List<Future<ShellResult>> futures = new ArrayList<>();
+        for (String command : commands) {
+            futures.add(VIRTUAL_THREAD_PER_TASK_EXECUTOR.submit(() -> run(command, kubeconfigPath, hetznerToken)));
+        }
+        List<ShellResult> results = new ArrayList<>();
+        for (Future<ShellResult> future : futures) {
+            results.add(await(future));
+        }
+        return results;
+    }
 
-        Process process = null;
+    /**
+     * The timeout covers reading the output too: a process left running in the background by the script keeps stdout
+     * open after the script itself exited
+     */
+    private static ShellResult run(ProcessBuilder builder, Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        Process process;
         try {
             process = builder.start();
-            String output = new String(process.getInputStream().readAllBytes());
-            String error = new String(process.getErrorStream().readAllBytes());
-            int status = process.waitFor();
-            return new ShellResult(status == 0 ? output : error, status);
-        } catch (IOException | InterruptedException e) {
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        try {
+            // Nothing is sent on stdin, commands reading it get an end of file instead of hanging
+            process.getOutputStream().close();
+            Future<String> output = VIRTUAL_THREAD_PER_TASK_EXECUTOR.submit(() -> read(process.getInputStream()));
+            Future<String> error = VIRTUAL_THREAD_PER_TASK_EXECUTOR.submit(() -> read(process.getErrorStream()));
+            if (!process.waitFor(remainingNanos(deadline), TimeUnit.NANOSECONDS)) {
+                kill(process, output, error);
+                return new ShellResult("Timed out after " + timeout.toSeconds() + "s", TIMED_OUT_STATUS);
+            }
+            int status = process.exitValue();
+            try {
+                String stdout = output.get(remainingNanos(deadline), TimeUnit.NANOSECONDS);
+                String stderr = error.get(remainingNanos(deadline), TimeUnit.NANOSECONDS);
+                return new ShellResult(status == 0 ? stdout : stderr, status);
+            } catch (TimeoutException e) {
+                kill(process, output, error);
+                return new ShellResult("Timed out after " + timeout.toSeconds() + "s, output was still open", TIMED_OUT_STATUS);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        } catch (IOException e) {
+            process.destroyForcibly();
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long remainingNanos(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
     }
 
-    private static void writeFile(String path, String content, boolean append) throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(path, append))) {
-            writer.write(content);
+    /**
+     * Closing the pipes lets the readers finish even if a process which isn't ours any more still holds them open
+     */
+    private static void kill(Process process, Future<String> output, Future<String> error) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+        try {
+            process.getInputStream().close();
+            process.getErrorStream().close();
+        } catch (IOException ignored) {
+        }
+        output.cancel(true);
+        error.cancel(true);
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         }
     }
 
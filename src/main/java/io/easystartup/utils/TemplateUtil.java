@@ -1,14 +1,25 @@
 package io.easystartup.utils;
 
 import com.hubspot.jinjava.Jinjava;
+import com.hubspot.jinjava.JinjavaConfig;
+import com.hubspot.jinjava.interpret.Context;
+import com.hubspot.jinjava.interpret.FatalTemplateErrorsException;
+import com.hubspot.jinjava.interpret.JinjavaInterpreter;
+import com.hubspot.jinjava.interpret.TemplateError;
+import com.hubspot.jinjava.tree.Node;
 import org.apache.commons.io.IOUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /*
  * @author indianBond
+ *
+ * Templates are read from the classpath and parsed once, then rendered from the parsed tree by one engine shared by all
+ * threads (each render gets its own interpreter and context, so concurrent renders don't see each other's variables).
  */
 public class TemplateUtil {
 
@@ -44,9 +55,57 @@ public class TemplateUtil {
         return null;
     }
 
+    private static final Jinjava JINJAVA = new Jinjava();
+    private static final Map<String, CompiledTemplate> COMPILED_TEMPLATES = new ConcurrentHashMap<>();
+
     public static String renderTemplate(String templateName, Map<String, Object> dataModel) {
-        Jinjava jinjava = new Jinjava();
-        String template = getTemplateFile(templateName);
-        return jinjava.render(template, dataModel);
+        CompiledTemplate template = COMPILED_TEMPLATES.computeIfAbsent(templateName, TemplateUtil::compile);
+        JinjavaConfig config = JINJAVA.getGlobalConfig();
+        Context context = new Context(JINJAVA.getGlobalContextCopy(), dataModel, config.getDisabled());
+        JinjavaInterpreter interpreter = new JinjavaInterpreter(JINJAVA, context, config);
+        JinjavaInterpreter.pushCurrent(interpreter);
+        try {
+            String output = interpreter.render(template.root);
+            failOnFatalErrors(template.source, interpreter);
+            return output;
+        } finally {
+            JinjavaInterpreter.popCurrent();
+        }
+    }
+
+    private static CompiledTemplate compile(String templateName) {
+        String source = getTemplateFile(templateName);
+        if (source == null) {
+            throw new RuntimeException("Template " + templateName + " not found");
+        }
+        JinjavaInterpreter interpreter = JINJAVA.newInterpreter();
+        Node root = interpreter.parse(source);
+        failOnFatalErrors(source, interpreter);
+        return new CompiledTemplate(source, root);
+    }
+
+    /**
+     * Same as what Jinjava.render does
+     */
+    private static void failOnFatalErrors(String source, JinjavaInterpreter interpreter) {
+        List<TemplateError> fatalErrors = interpreter.getErrorsCopy().stream()
+                .filter(error -> error.getSeverity() == TemplateError.ErrorType.FATAL)
+                .toList();
+        if (!fatalErrors.isEmpty()) {
+            throw new FatalTemplateErrorsException(source, fatalErrors);
+        }
+    }
+
+    /**
+     * Parsed tree of a template, only read while rendering
+     */
+    private static class CompiledTemplate {
+        private final String source;
+        private final Node root;
+
+        private CompiledTemplate(String source, Node root) {
+            this.source = source;
+            this.root = root;
+        }
     }
 }
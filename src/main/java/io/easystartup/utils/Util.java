@@ -36,13 +36,6 @@ public class Util {
         return false;
     }
 
-    public static void checkKubectl() {
-        if (!isExecutableAvailable("kubectl")) {
-            System.out.println("Please ensure kubectl is installed and in your PATH. On your local pc where you are running this create command");
-            System.exit(1);
-        }
-    }
-
     public static String replaceTildaWithFullHomePath(String path) {
         return path.startsWith("~") ? path.replaceFirst("~", System.getProperty("user.home")) : path;
     }